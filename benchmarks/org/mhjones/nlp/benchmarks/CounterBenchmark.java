@@ -0,0 +1,116 @@
+package org.mhjones.nlp.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.mhjones.nlp.util.Counter;
+import org.mhjones.nlp.util.CounterMap;
+import org.mhjones.nlp.util.Encoding;
+import org.mhjones.nlp.util.OffHeapCounterMap;
+
+// Counter.incrementCount and CounterMap.incrementCount/getCount on keys that are
+// already encoded. The "sparse" shape has many rows with a few entries each, the
+// "dense" shape a few rows that each hold most of the secondary vocabulary.
+// The offHeap* benchmarks run the same operations on an OffHeapCounterMap, and
+// the normalize benchmarks rescale every row, on one thread or on the common pool.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CounterBenchmark {
+    static final int OPERATIONS = 1 << 16;
+
+    @Param({ "sparse", "dense" })
+    public String shape;
+
+    @Param({ "10000" })
+    public int vocabularySize;
+
+    Integer[] primaries;
+    Integer[] secondaries;
+    Counter<Integer> counter;
+    CounterMap<Integer, Integer> counterMap;
+    OffHeapCounterMap<Integer, Integer> offHeapCounterMap;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(31);
+        int rows = shape.equals("sparse") ? vocabularySize : 16;
+        int columns = shape.equals("sparse") ? 8 : vocabularySize;
+
+        primaries = new Integer[OPERATIONS];
+        secondaries = new Integer[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            primaries[i] = random.nextInt(rows);
+            secondaries[i] = random.nextInt(columns) * 7919;
+        }
+
+        counter = new Counter<Integer>(new Encoding<Integer>());
+        counterMap = new CounterMap<Integer, Integer>(new Encoding<Integer>(), new Encoding<Integer>());
+        offHeapCounterMap = new OffHeapCounterMap<Integer, Integer>(new Encoding<Integer>(), new Encoding<Integer>());
+
+        // populate, so the measured operations hit existing entries
+        for (int i = 0; i < OPERATIONS; i++) {
+            counter.incrementCount(secondaries[i]);
+            counterMap.incrementCount(primaries[i], secondaries[i]);
+            offHeapCounterMap.incrementCount(primaries[i], secondaries[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        offHeapCounterMap.close();
+    }
+
+    @Benchmark
+    public void counterIncrement() {
+        next = (next + 1) & (OPERATIONS - 1);
+        counter.incrementCount(secondaries[next], 1.0);
+    }
+
+    @Benchmark
+    public void counterMapIncrement() {
+        next = (next + 1) & (OPERATIONS - 1);
+        counterMap.incrementCount(primaries[next], secondaries[next], 1.0);
+    }
+
+    @Benchmark
+    public double counterMapGetCount() {
+        next = (next + 1) & (OPERATIONS - 1);
+        return counterMap.getCount(primaries[next], secondaries[next]);
+    }
+
+    @Benchmark
+    public void offHeapIncrement() {
+        next = (next + 1) & (OPERATIONS - 1);
+        offHeapCounterMap.incrementCount(primaries[next], secondaries[next], 1.0);
+    }
+
+    @Benchmark
+    public double offHeapGetCount() {
+        next = (next + 1) & (OPERATIONS - 1);
+        return offHeapCounterMap.getCount(primaries[next], secondaries[next]);
+    }
+
+    @Benchmark
+    public void counterMapNormalize() {
+        counterMap.normalize();
+    }
+
+    @Benchmark
+    public void counterMapNormalizeParallel() {
+        counterMap.normalize(ForkJoinPool.commonPool());
+    }
+}
@@ -0,0 +1,79 @@
+package org.mhjones.nlp.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.mhjones.nlp.math.DoubleArrays;
+
+// The DoubleArrays kernels under Counter/CounterMap normalization and labeling.
+// The in-place kernels pair each update with its inverse so values stay bounded.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DoubleArraysBenchmark {
+    @Param({ "16", "1024", "65536" })
+    public int length;
+
+    double[] x;
+    double[] y;
+    double[] inverse;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(5);
+        x = new double[length];
+        y = new double[length];
+        inverse = new double[length];
+
+        for (int i = 0; i < length; i++) {
+            x[i] = random.nextDouble();
+            y[i] = 0.5 + random.nextDouble();
+            inverse[i] = 1.0 / y[i];
+        }
+    }
+
+    @Benchmark
+    public double sum() {
+        return DoubleArrays.sum(x, 0, length);
+    }
+
+    @Benchmark
+    public double max() {
+        return DoubleArrays.max(x);
+    }
+
+    @Benchmark
+    public int argMax() {
+        return DoubleArrays.argMax(x, 0, length);
+    }
+
+    @Benchmark
+    public double[] inPlaceAdd() {
+        DoubleArrays.inPlaceAdd(x, y, 0, length);
+        DoubleArrays.inPlaceAdd(x, -1.0, 0, length);
+        return x;
+    }
+
+    @Benchmark
+    public double[] inPlaceMultiply() {
+        DoubleArrays.inPlaceMultiply(x, y, 0, length);
+        DoubleArrays.inPlaceMultiply(x, inverse, 0, length);
+        return x;
+    }
+
+    @Benchmark
+    public double[] inPlaceDivide() {
+        DoubleArrays.inPlaceDivide(x, 0.75, 0, length);
+        DoubleArrays.inPlaceDivide(x, 1.0 / 0.75, 0, length);
+        return x;
+    }
+}
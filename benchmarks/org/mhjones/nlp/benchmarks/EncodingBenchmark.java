@@ -0,0 +1,80 @@
+package org.mhjones.nlp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.mhjones.nlp.util.ConcurrentEncoding;
+import org.mhjones.nlp.util.Encoding;
+
+// Encoding.encode on keys already in the vocabulary (hits) and on fresh keys
+// (misses, which intern and assign an id), plus the non-mutating lookup miss.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EncodingBenchmark {
+    @Param({ "1000", "100000" })
+    public int vocabularySize;
+
+    @Param({ "plain", "concurrent" })
+    public String kind;
+
+    String[] known;
+    String[] unknown;
+    Encoding<String> encoding;
+    int nextKnown;
+    int nextUnknown;
+
+    protected Encoding<String> newEncoding() {
+        if (kind.equals("concurrent")) return new ConcurrentEncoding<String>();
+        return new Encoding<String>();
+    }
+
+    @Setup(Level.Trial)
+    public void setUpKeys() {
+        SyntheticCorpus corpus = new SyntheticCorpus(vocabularySize, 2, 17);
+        known = new String[vocabularySize];
+        unknown = new String[1 << 20];
+
+        // copies, so hits are found by equality rather than identity
+        for (int i = 0; i < vocabularySize; i++)
+            known[i] = new String(corpus.vocabulary[i] + "-" + i);
+        for (int i = 0; i < unknown.length; i++)
+            unknown[i] = "MISS-" + i;
+    }
+
+    // a fresh vocabulary each iteration, so every unknown key is a real miss
+    @Setup(Level.Iteration)
+    public void setUpEncoding() {
+        encoding = newEncoding();
+        for (String key : known) encoding.encode(new String(key));
+        nextKnown = 0;
+        nextUnknown = 0;
+    }
+
+    @Benchmark
+    public int encodeHit() {
+        nextKnown = (nextKnown + 1 == known.length) ? 0 : nextKnown + 1;
+        return encoding.encode(known[nextKnown]);
+    }
+
+    @Benchmark
+    public int encodeMiss() {
+        nextUnknown = (nextUnknown + 1 == unknown.length) ? 0 : nextUnknown + 1;
+        return encoding.encode(unknown[nextUnknown]);
+    }
+
+    @Benchmark
+    public int lookupMiss() {
+        nextUnknown = (nextUnknown + 1 == unknown.length) ? 0 : nextUnknown + 1;
+        return encoding.lookup(unknown[nextUnknown]);
+    }
+}
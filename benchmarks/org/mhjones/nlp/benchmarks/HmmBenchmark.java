@@ -0,0 +1,82 @@
+package org.mhjones.nlp.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.mhjones.nlp.examples.HmmTagger;
+import org.mhjones.nlp.util.Pair;
+
+// HmmTagger training and Viterbi decoding throughput on a synthetic tagged
+// corpus. train() builds a fresh tagger each call; tag() cycles through held-out
+// sentences on a tagger trained once per trial, exactly or with a beam and tag
+// dictionary.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HmmBenchmark {
+    @Param({ "10000" })
+    public int vocabularySize;
+
+    @Param({ "5000" })
+    public int sentences;
+
+    @Param({ "20" })
+    public int sentenceLength;
+
+    @Param({ "12", "45" })
+    public int tags;
+
+    @Param({ "false", "true" })
+    public boolean pruned;
+
+    List<Pair<String[], String[]>> trainingData;
+    String[][] testData;
+    HmmTagger trained;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+        int[] tags = new int[64];
+    }
+
+    @Setup
+    public void setUp() {
+        SyntheticCorpus corpus = new SyntheticCorpus(vocabularySize, tags, 13);
+        trainingData = corpus.taggedData(sentences, sentenceLength);
+
+        List<Pair<String[], String[]>> test = corpus.taggedData(1024, sentenceLength);
+        testData = new String[test.size()][];
+        for (int i = 0; i < testData.length; i++)
+            testData[i] = test.get(i).getFirst();
+
+        trained = new HmmTagger();
+        trained.train(trainingData);
+        if (pruned) {
+            trained.setBeam(10.0);
+            trained.setTagDictionary(true);
+        }
+    }
+
+    @Benchmark
+    public HmmTagger train() {
+        HmmTagger tagger = new HmmTagger();
+        tagger.train(trainingData);
+        tagger.tagEncoding(); // compiles the model
+        return tagger;
+    }
+
+    @Benchmark
+    public double tag(Cursor cursor) {
+        cursor.next = (cursor.next + 1) & (testData.length - 1);
+        return trained.tag(testData[cursor.next], cursor.tags);
+    }
+}
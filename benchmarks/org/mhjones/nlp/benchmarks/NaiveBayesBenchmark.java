@@ -0,0 +1,89 @@
+package org.mhjones.nlp.benchmarks;
+
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.mhjones.nlp.examples.LabeledBatch;
+import org.mhjones.nlp.examples.NaiveBayesClassifier;
+import org.mhjones.nlp.util.Pair;
+
+// NaiveBayesClassifier training and labeling throughput on a synthetic corpus.
+// train() builds a fresh classifier each call; label() cycles through held-out
+// data on a classifier trained once per trial, and labelBatch() labels all of it
+// on a fork-join pool of the given size.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class NaiveBayesBenchmark {
+    @Param({ "1000", "50000" })
+    public int vocabularySize;
+
+    @Param({ "10000" })
+    public int corpusSize;
+
+    @Param({ "4" })
+    public int labels;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    Set<Pair<String, String>> trainingData;
+    String[] testData;
+    NaiveBayesClassifier trained;
+    ForkJoinPool pool;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        SyntheticCorpus corpus = new SyntheticCorpus(vocabularySize, labels, 11);
+        trainingData = corpus.labeledData(corpusSize, 8);
+        testData = corpus.data(4096, 8);
+
+        trained = new NaiveBayesClassifier();
+        trained.train(trainingData, threads);
+        trained.freeze();
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public NaiveBayesClassifier train() throws InterruptedException {
+        NaiveBayesClassifier classifier = new NaiveBayesClassifier();
+
+        if (threads == 1) classifier.train(trainingData);
+        else classifier.train(trainingData, threads);
+
+        return classifier;
+    }
+
+    @Benchmark
+    public String label(Cursor cursor) {
+        cursor.next = (cursor.next + 1) & (testData.length - 1);
+        return trained.label(testData[cursor.next]);
+    }
+
+    // Whole test set per call; compare against 4096 label() calls
+    @Benchmark
+    public LabeledBatch labelBatch() {
+        return trained.labelBatch(testData, pool);
+    }
+}
@@ -0,0 +1,105 @@
+package org.mhjones.nlp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.mhjones.nlp.util.Pair;
+
+// Reproducible labeled corpora for benchmarks. Data are drawn from a vocabulary of
+// random lowercase words with a skewed (roughly Zipfian) frequency, and each
+// label prefers its own slice of the vocabulary so the classifier has signal.
+public class SyntheticCorpus {
+    public final String[] vocabulary;
+    public final String[] labels;
+    final Random random;
+
+    protected int nextWordIndex() {
+        // squaring a uniform draw skews toward the front of the vocabulary
+        double u = random.nextDouble();
+        return (int) (u * u * vocabulary.length);
+    }
+
+    public String datum(int words) {
+        StringBuilder datum = new StringBuilder();
+
+        for (int i = 0; i < words; i++) {
+            if (i > 0) datum.append(' ');
+            datum.append(vocabulary[nextWordIndex()]);
+        }
+
+        return datum.toString();
+    }
+
+    public String[] data(int size, int words) {
+        String[] data = new String[size];
+
+        for (int i = 0; i < size; i++)
+            data[i] = datum(words);
+
+        return data;
+    }
+
+    public Set<Pair<String, String>> labeledData(int size, int words) {
+        Set<Pair<String, String>> pairs = new HashSet<Pair<String, String>>();
+
+        for (int i = 0; i < size; i++) {
+            int label = random.nextInt(labels.length);
+            StringBuilder datum = new StringBuilder();
+
+            for (int j = 0; j < words; j++) {
+                if (j > 0) datum.append(' ');
+                int word = nextWordIndex();
+                // bias each label toward words congruent to it
+                if (random.nextBoolean()) word -= word % labels.length - label;
+                datum.append(vocabulary[Math.max(0, Math.min(vocabulary.length - 1, word))]);
+            }
+
+            pairs.add(new Pair<String, String>(datum.toString(), labels[label]));
+        }
+
+        return pairs;
+    }
+
+    // Sentences from a random first-order HMM over the labels: each tag prefers
+    // a few successors and, like labeledData, its own slice of the vocabulary
+    public List<Pair<String[], String[]>> taggedData(int size, int length) {
+        List<Pair<String[], String[]>> sentences = new ArrayList<Pair<String[], String[]>>();
+
+        for (int i = 0; i < size; i++) {
+            String[] words = new String[length];
+            String[] tags = new String[length];
+            int tag = random.nextInt(labels.length);
+
+            for (int j = 0; j < length; j++) {
+                if (j > 0) tag = random.nextBoolean() ? (tag + 1) % labels.length : random.nextInt(labels.length);
+                int word = nextWordIndex();
+                if (random.nextBoolean()) word -= word % labels.length - tag;
+                words[j] = vocabulary[Math.max(0, Math.min(vocabulary.length - 1, word))];
+                tags[j] = labels[tag];
+            }
+
+            sentences.add(new Pair<String[], String[]>(words, tags));
+        }
+
+        return sentences;
+    }
+
+    public SyntheticCorpus(int vocabularySize, int labelCount, long seed) {
+        random = new Random(seed);
+        vocabulary = new String[vocabularySize];
+        labels = new String[labelCount];
+
+        for (int i = 0; i < vocabularySize; i++) {
+            char[] word = new char[3 + random.nextInt(8)];
+            for (int j = 0; j < word.length; j++)
+                word[j] = (char) ('a' + random.nextInt(26));
+            vocabulary[i] = new String(word);
+        }
+
+        for (int i = 0; i < labelCount; i++)
+            labels[i] = "LABEL-" + i;
+    }
+}
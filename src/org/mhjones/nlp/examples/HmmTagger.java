@@ -0,0 +1,388 @@
+package org.mhjones.nlp.examples;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.mhjones.nlp.math.DoubleMatrix;
+import org.mhjones.nlp.util.CounterMap;
+import org.mhjones.nlp.util.Encoding;
+import org.mhjones.nlp.util.Pair;
+
+// First-order hidden Markov model tagger. Training counts tag transitions and
+// tag/word emissions in CounterMaps; the first decode after training compiles
+// them into add-alpha smoothed log probabilities. Emissions are stored only for
+// the (word, tag) pairs seen in training, in the compressed rows of the tag
+// dictionary; any other pair takes its tag's unseen-word value, which is what
+// smoothing gives it anyway, so the model grows with the training data rather
+// than with words x tags. Viterbi decoding runs in
+// log space over a per-thread lattice of flat arrays that is reused across
+// sentences (it only grows for a sentence longer than any before), so
+// tag(words, tags) allocates nothing. Optionally a beam drops states scoring more
+// than beam below the best at each position, and a tag dictionary limits each
+// known word to the tags it was seen with in training.
+public class HmmTagger {
+    public static final String START = "<S>";
+    public static final String STOP = "</S>";
+
+    CounterMap<String, String> transitions; // previous tag (or START) -> tag (or STOP)
+    CounterMap<String, String> emissions;   // tag -> word
+    final double smoothing;
+
+    volatile double beam = Double.POSITIVE_INFINITY;
+    volatile boolean useTagDictionary;
+    volatile Model model; // compiled on demand; cleared whenever the counts change
+
+    // Smoothed log probabilities. Tag and word ids are those of the emission
+    // CounterMap's encodings, frozen when the model was compiled.
+    static class Model {
+        final Encoding<String> tagEncoding;
+        final Encoding<String> wordEncoding;
+        final int tags;
+        final double[] startLog;          // log P(tag | START)
+        final double[] stopLog;           // log P(STOP | tag)
+        final DoubleMatrix transitionLog; // previous tag x tag
+        final double[] unknownLog;        // log P(word | tag) for a word never seen with tag
+        final int[] dictionaryOffsets;    // tags seen with word w are, in tag order,
+        final int[] dictionaryTags;       // dictionaryTags[dictionaryOffsets[w] .. dictionaryOffsets[w+1])
+        final double[] dictionaryLog;     // and log P(w | tag) for each of them
+        final int[] allTags;
+
+        // log P(word | tag), searching the word's dictionary row
+        double emission(int word, int tag) {
+            if (word == Encoding.UNKNOWN)
+                return unknownLog[tag];
+
+            int entry = Arrays.binarySearch(dictionaryTags, dictionaryOffsets[word], dictionaryOffsets[word + 1], tag);
+            return (entry >= 0) ? dictionaryLog[entry] : unknownLog[tag];
+        }
+
+        Model(Encoding<String> tagEncoding, Encoding<String> wordEncoding, int[] dictionaryOffsets, int[] dictionaryTags, double[] dictionaryLog) {
+            this.tagEncoding = tagEncoding;
+            this.wordEncoding = wordEncoding;
+            this.tags = tagEncoding.size();
+            this.startLog = new double[tags];
+            this.stopLog = new double[tags];
+            this.transitionLog = new DoubleMatrix(tags, tags);
+            this.unknownLog = new double[tags];
+            this.dictionaryOffsets = dictionaryOffsets;
+            this.dictionaryTags = dictionaryTags;
+            this.dictionaryLog = dictionaryLog;
+            this.allTags = new int[tags];
+            for (int tag = 0; tag < tags; tag++) allTags[tag] = tag;
+        }
+    }
+
+    // Viterbi scratch, indexed position*tags + tag. Only the tags listed as active
+    // at a position hold meaningful scores there.
+    static class Lattice {
+        double[] scores = new double[0];
+        int[] backPointers = new int[0];
+        int[] active = new int[0];
+        int[] activeCounts = new int[0];
+
+        void ensure(int length, int tags) {
+            int cells = length * tags;
+            if (scores.length < cells) {
+                scores = new double[cells];
+                backPointers = new int[cells];
+                active = new int[cells];
+            }
+            if (activeCounts.length < length)
+                activeCounts = new int[length];
+        }
+    }
+
+    final ThreadLocal<Lattice> lattices = new ThreadLocal<Lattice>() {
+        protected Lattice initialValue() {
+            return new Lattice();
+        }
+    };
+
+    public void train(Collection<Pair<String[], String[]>> taggedSentences) {
+        train(taggedSentences.iterator());
+    }
+
+    // Each pair is a sentence's words and their tags
+    public synchronized void train(Iterator<Pair<String[], String[]>> taggedSentences) {
+        while (taggedSentences.hasNext()) {
+            Pair<String[], String[]> sentence = taggedSentences.next();
+            String[] words = sentence.getFirst();
+            String[] tags = sentence.getSecond();
+
+            if (words.length != tags.length)
+                throw new IllegalArgumentException("Sentence has " + words.length + " words but " + tags.length + " tags");
+
+            String previous = START;
+            for (int i = 0; i < words.length; i++) {
+                transitions.incrementCount(previous, tags[i]);
+                emissions.incrementCount(tags[i], words[i]);
+                previous = tags[i];
+            }
+            transitions.incrementCount(previous, STOP);
+        }
+
+        model = null;
+    }
+
+    // States scoring more than beam (in log space) below the best state at a
+    // position are dropped; infinity, the default, keeps exact Viterbi
+    public void setBeam(double beam) {
+        if (!(beam >= 0.0))
+            throw new IllegalArgumentException("Beam must not be negative: " + beam);
+        this.beam = beam;
+    }
+
+    public void setTagDictionary(boolean useTagDictionary) {
+        this.useTagDictionary = useTagDictionary;
+    }
+
+    protected Model model() {
+        Model compiled = model;
+
+        if (compiled == null) {
+            synchronized (this) {
+                compiled = model;
+                if (compiled == null) {
+                    compiled = compile();
+                    model = compiled;
+                }
+            }
+        }
+
+        return compiled;
+    }
+
+    protected Model compile() {
+        Encoding<String> tagEncoding = emissions.primaryEncoding.freeze();
+        Encoding<String> wordEncoding = emissions.secondaryEncoding.freeze();
+        int tags = tagEncoding.size();
+        int words = wordEncoding.size();
+
+        if (tags == 0)
+            throw new IllegalStateException("Tagger has not been trained");
+
+        // emissions: words + 1 outcomes (every word and an unseen one) for each tag
+        double[] emissionLogTotals = new double[tags];
+        for (int tag = 0; tag < tags; tag++)
+            emissionLogTotals[tag] = Math.log(emissions.rowTotals[tag] + smoothing * (words + 1));
+
+        // tag dictionary: count the tags of each word, then fill in tag order with
+        // the smoothed log probabilities of the pairs
+        int[] dictionaryOffsets = new int[words + 1];
+        for (int tag = 0; tag < tags; tag++) {
+            int used = emissions.secondaryRevIdx[tag].size();
+            for (int pos = 0; pos < used; pos++)
+                dictionaryOffsets[emissions.secondaryIdx[tag][pos] + 1]++;
+        }
+        for (int word = 0; word < words; word++)
+            dictionaryOffsets[word + 1] += dictionaryOffsets[word];
+
+        int[] dictionaryTags = new int[dictionaryOffsets[words]];
+        double[] dictionaryLog = new double[dictionaryOffsets[words]];
+        int[] filled = Arrays.copyOf(dictionaryOffsets, words);
+        for (int tag = 0; tag < tags; tag++) {
+            int used = emissions.secondaryRevIdx[tag].size();
+            for (int pos = 0; pos < used; pos++) {
+                int entry = filled[emissions.secondaryIdx[tag][pos]]++;
+                dictionaryTags[entry] = tag;
+                dictionaryLog[entry] = Math.log(emissions.values[tag][pos] + smoothing) - emissionLogTotals[tag];
+            }
+        }
+
+        Model model = new Model(tagEncoding, wordEncoding, dictionaryOffsets, dictionaryTags, dictionaryLog);
+        for (int tag = 0; tag < tags; tag++)
+            model.unknownLog[tag] = Math.log(smoothing) - emissionLogTotals[tag];
+
+        // transitions: tags + 1 outcomes (every tag and STOP) after each state
+        for (int previous = -1; previous < tags; previous++) {
+            String from = (previous < 0) ? START : tagEncoding.decode(previous);
+            double logTotal = Math.log(transitions.getRowTotal(from) + smoothing * (tags + 1));
+
+            for (int tag = 0; tag < tags; tag++) {
+                double logProbability = Math.log(transitions.getCount(from, tagEncoding.decode(tag)) + smoothing) - logTotal;
+                if (previous < 0) model.startLog[tag] = logProbability;
+                else model.transitionLog.set(previous, tag, logProbability);
+            }
+
+            if (previous >= 0)
+                model.stopLog[previous] = Math.log(transitions.getCount(from, STOP) + smoothing) - logTotal;
+        }
+
+        return model;
+    }
+
+    public Encoding<String> tagEncoding() {
+        return model().tagEncoding;
+    }
+
+    // Writes the best tag id for each word into tags and returns the log
+    // probability of that tagging (under the beam, the best path it kept)
+    public double tag(String[] words, int[] tags) {
+        return tag(model(), words, tags);
+    }
+
+    protected double tag(Model m, String[] words, int[] tags) {
+        int n = words.length;
+        int width = m.tags;
+
+        if (tags.length < n)
+            throw new IllegalArgumentException("Tag buffer holds " + tags.length + " tags for " + n + " words");
+        if (n == 0)
+            return 0.0;
+
+        Lattice lattice = lattices.get();
+        lattice.ensure(n, width);
+
+        double[] scores = lattice.scores;
+        int[] backPointers = lattice.backPointers;
+        int[] active = lattice.active;
+        int[] activeCounts = lattice.activeCounts;
+        double[] transitionLog = m.transitionLog.data;
+        int transitionStride = m.transitionLog.stride();
+        int[] dictionaryTags = m.dictionaryTags;
+        double[] dictionaryLog = m.dictionaryLog;
+        boolean useTagDictionary = this.useTagDictionary;
+        double beam = this.beam;
+
+        for (int i = 0; i < n; i++) {
+            int word = m.wordEncoding.lookup(words[i]);
+            int cell = i * width;
+
+            // the word's dictionary row: the tags it was seen with, in tag order
+            int entry = 0;
+            int entryEnd = 0;
+            if (word != Encoding.UNKNOWN) {
+                entry = m.dictionaryOffsets[word];
+                entryEnd = m.dictionaryOffsets[word + 1];
+            }
+
+            // candidate tags for this word, in tag order either way, so the row is
+            // walked alongside them
+            int[] candidates = m.allTags;
+            int from = 0;
+            int to = width;
+            if (useTagDictionary && word != Encoding.UNKNOWN) {
+                candidates = dictionaryTags;
+                from = entry;
+                to = entryEnd;
+            }
+
+            double best = Double.NEGATIVE_INFINITY;
+            int count = 0;
+
+            for (int c = from; c < to; c++) {
+                int tag = candidates[c];
+                double emission;
+                if (entry < entryEnd && dictionaryTags[entry] == tag) emission = dictionaryLog[entry++];
+                else emission = m.unknownLog[tag];
+                double score;
+                int backPointer = -1;
+
+                if (i == 0) {
+                    score = m.startLog[tag];
+                } else {
+                    score = Double.NEGATIVE_INFINITY;
+                    int previousCell = cell - width;
+                    for (int a = 0; a < activeCounts[i-1]; a++) {
+                        int previous = active[previousCell + a];
+                        double v = scores[previousCell + previous] + transitionLog[previous*transitionStride + tag];
+                        if (v > score || backPointer < 0) {
+                            score = v;
+                            backPointer = previous;
+                        }
+                    }
+                }
+
+                score += emission;
+                scores[cell + tag] = score;
+                backPointers[cell + tag] = backPointer;
+                active[cell + count++] = tag;
+                if (score > best) best = score;
+            }
+
+            // beam: keep states within beam of the best
+            if (beam != Double.POSITIVE_INFINITY) {
+                int kept = 0;
+                for (int a = 0; a < count; a++) {
+                    int tag = active[cell + a];
+                    if (scores[cell + tag] >= best - beam)
+                        active[cell + kept++] = tag;
+                }
+                count = kept;
+            }
+
+            activeCounts[i] = count;
+        }
+
+        int last = (n - 1) * width;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        int bestTag = -1;
+        for (int a = 0; a < activeCounts[n-1]; a++) {
+            int tag = active[last + a];
+            double v = scores[last + tag] + m.stopLog[tag];
+            if (v > bestScore || bestTag < 0) {
+                bestScore = v;
+                bestTag = tag;
+            }
+        }
+
+        for (int i = n - 1; i >= 0; i--) {
+            tags[i] = bestTag;
+            bestTag = backPointers[i * width + bestTag];
+        }
+
+        return bestScore;
+    }
+
+    // Log probability of words with the given tags under the smoothed model
+    public double logProbability(String[] words, String[] tags) {
+        Model m = model();
+
+        if (words.length != tags.length)
+            throw new IllegalArgumentException("Sentence has " + words.length + " words but " + tags.length + " tags");
+        if (words.length == 0)
+            return 0.0;
+
+        double logProbability = 0.0;
+        int previous = -1;
+
+        for (int i = 0; i < words.length; i++) {
+            int tag = m.tagEncoding.lookup(tags[i]);
+            if (tag == Encoding.UNKNOWN)
+                throw new IllegalArgumentException("Unknown tag: " + tags[i]);
+
+            int word = m.wordEncoding.lookup(words[i]);
+            logProbability += (previous < 0) ? m.startLog[tag] : m.transitionLog.get(previous, tag);
+            logProbability += m.emission(word, tag);
+            previous = tag;
+        }
+
+        return logProbability + m.stopLog[previous];
+    }
+
+    public String[] tag(String[] words) {
+        Model m = model();
+        int[] tagIds = new int[words.length];
+        tag(m, words, tagIds);
+
+        String[] tags = new String[words.length];
+        for (int i = 0; i < words.length; i++)
+            tags[i] = m.tagEncoding.decode(tagIds[i]);
+
+        return tags;
+    }
+
+    public HmmTagger(double smoothing) {
+        if (!(smoothing > 0.0))
+            throw new IllegalArgumentException("Smoothing must be positive: " + smoothing);
+
+        this.smoothing = smoothing;
+        transitions = new CounterMap<String, String>();
+        emissions = new CounterMap<String, String>();
+    }
+
+    public HmmTagger() {
+        this(0.1);
+    }
+}
@@ -0,0 +1,33 @@
+package org.mhjones.nlp.examples;
+
+import org.mhjones.nlp.util.Encoding;
+
+// Result of NaiveBayesClassifier.labelBatch: the label id and score of each input,
+// in input order, as two parallel arrays rather than one object per datum.
+public class LabeledBatch {
+    public final int[] labels;
+    public final double[] scores;
+    final Encoding<String> labelEncoding;
+
+    public int size() {
+        return labels.length;
+    }
+
+    public String label(int i) {
+        return labelEncoding.decode(labels[i]);
+    }
+
+    public double score(int i) {
+        return scores[i];
+    }
+
+    public Encoding<String> labelEncoding() {
+        return labelEncoding;
+    }
+
+    LabeledBatch(int size, Encoding<String> labelEncoding) {
+        this.labels = new int[size];
+        this.scores = new double[size];
+        this.labelEncoding = labelEncoding;
+    }
+}
@@ -0,0 +1,57 @@
+package org.mhjones.nlp.examples;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mhjones.nlp.util.CounterMap;
+import org.mhjones.nlp.util.Encoding;
+import org.mhjones.nlp.util.MappedCounterMap;
+
+// NaiveBayesScorer reading a model mapped from a ModelFile in place. Each feature
+// row holds the raw counts of the labels it was seen with, sorted by label, so a
+// feature adds log(count) - log(row total) for those labels and -infinity for the
+// rest, exactly what a compiled table row holds. Nothing is copied at load time,
+// and a model with no row for a feature is never touched for it.
+public class MappedNaiveBayesScorer extends NaiveBayesScorer {
+    final MappedCounterMap<Integer, String> featureDistribution;
+
+    public void addFeature(int feature, double[] scores) {
+        if (feature < 0 || feature >= features)
+            return;
+
+        int row = featureDistribution.primaryEncoding.lookup(feature);
+        if (row == Encoding.UNKNOWN)
+            return;
+
+        int start = featureDistribution.rowStart(row);
+        int end = featureDistribution.rowEnd(row);
+
+        // saved rows hold raw counts (older files hold probabilities, which sum to 1)
+        double total = 0.0;
+        for (int pos = start; pos < end; pos++)
+            total += featureDistribution.value(pos);
+        double logTotal = Math.log(total);
+
+        // walk the labels and the sorted row together
+        int pos = start;
+        for (int label = 0; label < labels; label++) {
+            if (pos < end && featureDistribution.column(pos) == label)
+                scores[label] += Math.log(featureDistribution.value(pos++)) - logTotal;
+            else
+                scores[label] += Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    // A mapped model never changes, so results stay current for this scorer
+    public boolean isCurrent(NaiveBayesScorer scorer, long version, int[] features, int count) {
+        return scorer == this;
+    }
+
+    public NaiveBayesScorer update(CounterMap<Integer, String> featureDistribution, int features, int[] touched, int count) {
+        throw new IllegalStateException("Scorer reads a mapped model and is read-only");
+    }
+
+    MappedNaiveBayesScorer(MappedCounterMap<Integer, String> featureDistribution, int features) {
+        super(features, featureDistribution.secondaryEncoding.size(), null, null, new AtomicLong(), featureDistribution.secondaryEncoding);
+        this.featureDistribution = featureDistribution;
+    }
+}
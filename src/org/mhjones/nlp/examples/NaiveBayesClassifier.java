@@ -1,121 +1,513 @@
 package org.mhjones.nlp.examples;
 
-import java.io.FileReader;
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.HashMap;
 import java.util.HashSet;
-
-import org.mhjones.nlp.math.DoubleArrays;
-import org.mhjones.nlp.util.Counter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+import org.mhjones.nlp.util.BufferedFeatureExtractor;
+import org.mhjones.nlp.util.ConcurrentEncoding;
 import org.mhjones.nlp.util.CounterMap;
+import org.mhjones.nlp.util.DelimitedReader;
 import org.mhjones.nlp.util.Encoding;
+import org.mhjones.nlp.util.FeatureBuffer;
 import org.mhjones.nlp.util.FeatureExtractor;
+import org.mhjones.nlp.util.IntegerMap;
+import org.mhjones.nlp.util.LruCache;
+import org.mhjones.nlp.util.MappedCounterMap;
+import org.mhjones.nlp.util.Metrics;
+import org.mhjones.nlp.util.ModelFile;
 import org.mhjones.nlp.util.Pair;
 
 public class NaiveBayesClassifier {
 
-    protected class IdentityExtractor implements FeatureExtractor {
-        Encoding<String> encoder;
+    // Runs a plain FeatureExtractor behind the buffered contract
+    protected static class ArrayExtractorAdapter implements BufferedFeatureExtractor {
+        FeatureExtractor extractor;
 
         public int[] extractFeatures(String datum) {
-            int[] features = new int[1];
+            return extractor.extractFeatures(datum);
+        }
 
-            features[0] = encoder.encode("IDENTITY-" + datum);
+        public void extractFeatures(CharSequence datum, int start, int end, FeatureBuffer features) {
+            for (int feature : extractor.extractFeatures(datum.subSequence(start, end).toString()))
+                features.add(feature);
+        }
 
-            return features;
+        public ArrayExtractorAdapter(FeatureExtractor extractor) {
+            this.extractor = extractor;
         }
+    }
 
-        public IdentityExtractor(Encoding<String> encoder) {
+    protected abstract class BufferedExtractor implements BufferedFeatureExtractor {
+        public int[] extractFeatures(String datum) {
+            FeatureBuffer features = new FeatureBuffer(datum.length() + 1);
+            extractFeatures(datum, 0, datum.length(), features);
+            return features.toArray();
+        }
+    }
+
+    // Caches feature ids per thread by a primitive code (a char, or a pair of chars),
+    // so a feature's String is only built the first time a thread sees it
+    protected abstract class CodedExtractor extends BufferedExtractor {
+        Encoding<String> encoder;
+
+        ThreadLocal<IntegerMap> cachedIds = new ThreadLocal<IntegerMap>() {
+            protected IntegerMap initialValue() {
+                return new IntegerMap(256);
+            }
+        };
+
+        protected abstract String featureName(int code);
+
+        protected IntegerMap cache() {
+            return cachedIds.get();
+        }
+
+        protected int encode(IntegerMap cache, int code) {
+            // ids are cached plus one, so UNKNOWN from a frozen encoder is cached as 0
+            int cached = cache.get(code);
+            if (cached != IntegerMap.MISSING)
+                return cached - 1;
+
+            int feature = encoder.encode(featureName(code));
+            if (code != IntegerMap.MISSING)
+                cache.put(code, feature + 1);
+
+            return feature;
+        }
+
+        public CodedExtractor(Encoding<String> encoder) {
             this.encoder = encoder;
         }
     }
 
-    protected class CharacterExtractor implements FeatureExtractor {
+    protected class IdentityExtractor extends BufferedExtractor {
         Encoding<String> encoder;
 
-        public int[] extractFeatures(String datum) {
-            int[] features = new int[datum.length()];
+        public void extractFeatures(CharSequence datum, int start, int end, FeatureBuffer features) {
+            features.add(encoder.encode(new StringBuilder(9 + end - start).append("IDENTITY-").append(datum, start, end).toString()));
+        }
+
+        public IdentityExtractor(Encoding<String> encoder) {
+            this.encoder = encoder;
+        }
+    }
+
+    protected class CharacterExtractor extends CodedExtractor {
+        protected String featureName(int code) {
+            return "CHAR-" + (char) code;
+        }
 
-            for (int i = 0; i < datum.length(); i++)
-                features[i] = encoder.encode("CHAR-" + datum.charAt(i));
+        public void extractFeatures(CharSequence datum, int start, int end, FeatureBuffer features) {
+            IntegerMap cache = cache();
 
-            return features;
+            for (int i = start; i < end; i++)
+                features.add(encode(cache, datum.charAt(i)));
         }
 
         public CharacterExtractor(Encoding<String> encoding) {
-            this.encoder = encoding;
+            super(encoding);
         }
     }
 
-    protected class BiCharacterExtractor implements FeatureExtractor {
-        Encoding<String> encoder;
+    protected class BiCharacterExtractor extends CodedExtractor {
+        protected String featureName(int code) {
+            return "CHAR-" + (char) (code >>> 16) + (char) (code & 0xFFFF);
+        }
 
-        public int[] extractFeatures(String datum) {
-            int[] features = new int[datum.length()];
+        public void extractFeatures(CharSequence datum, int start, int end, FeatureBuffer features) {
+            IntegerMap cache = cache();
             char last = '_';
 
-            for (int i = 0; i < datum.length(); i++) {
-                features[i] = encoder.encode("CHAR-" + last + datum.charAt(i));
-                last = datum.charAt(i);
+            for (int i = start; i < end; i++) {
+                char next = datum.charAt(i);
+                features.add(encode(cache, (last << 16) | next));
+                last = next;
             }
-
-            return features;
         }
 
         public BiCharacterExtractor(Encoding<String> encoding) {
-            this.encoder = encoding;
+            super(encoding);
         }
     }
 
+    // data read per thread per round of parallel training
+    static final int BATCH_SIZE = 4096;
+    // data labeled by one fork-join task without splitting further
+    static final int BATCH_GRAIN = 256;
+
     CounterMap<Integer, String> featureDistribution;
-    FeatureExtractor[] featureExtractors;
+    MappedCounterMap<Integer, String> mappedDistribution; // set by load(), which makes the classifier read-only
+    volatile NaiveBayesScorer scorer; // compiled from the distribution on demand; cleared whenever it changes
+    volatile LruCache<String, CachedLabeling> cache; // optional, see enableCache
+    BufferedFeatureExtractor[] featureExtractors;
     protected Encoding<String> featureEncoder;
 
-    public void train(Set<Pair<String, String>> labeledData) {
-        for (Pair<String,String> datum : labeledData)
-            for (FeatureExtractor extractor: featureExtractors)
-                for (int feature : extractor.extractFeatures(datum.getFirst()))
-                    featureDistribution.incrementCount(feature, datum.getSecond());
+    ThreadLocal<FeatureBuffer> featureBuffers = new ThreadLocal<FeatureBuffer>() {
+        protected FeatureBuffer initialValue() {
+            return new FeatureBuffer();
+        }
+    };
+
+    protected static void extractFeatures(BufferedFeatureExtractor[] extractors, CharSequence datum, int start, int end, FeatureBuffer features) {
+        features.clear();
 
-        featureDistribution.normalize();
+        for (BufferedFeatureExtractor extractor: extractors)
+            extractor.extractFeatures(datum, start, end, features);
     }
 
-    public String label(String datum) {
-        double uniform = 1.0 / (double)featureDistribution.secondaryEncoding.size();
-        double[] labelDistribution = DoubleArrays.constantArray(featureDistribution.secondaryEncoding.size(), uniform);
-
-        for (FeatureExtractor extractor: featureExtractors)
-            for (int feature : extractor.extractFeatures(datum)) {
-                Counter<String> features = featureDistribution.getCounter(feature);
-		//                System.out.println("Feature " + featureEncoder.decode(feature) + ": " + features);
-                DoubleArrays.inPlaceMultiply(labelDistribution, features.values, 0, features.encoding.size());
+    protected void countFeatures(Pair<String, String> datum, CounterMap<Integer, String> counts, BufferedFeatureExtractor[] extractors, FeatureBuffer features) {
+        extractFeatures(extractors, datum.getFirst(), 0, datum.getFirst().length(), features);
+
+        for (int i = 0; i < features.size(); i++) {
+            // UNKNOWN once the feature encoding is frozen
+            if (features.get(i) != Encoding.UNKNOWN)
+                counts.incrementCount(features.get(i), datum.getSecond());
+        }
+    }
+
+    protected void checkTrainable() {
+        if (mappedDistribution != null)
+            throw new IllegalStateException("Classifier was loaded from a model file and is read-only");
+    }
+
+    public void train(Collection<Pair<String, String>> labeledData) {
+        train(labeledData.iterator());
+    }
+
+    // Counts each datum as it is read, so memory depends on the model rather than
+    // on the corpus: labeledData can be a DelimitedReader over a file of any size
+    public void train(Iterator<Pair<String, String>> labeledData) {
+        checkTrainable();
+
+        FeatureBuffer features = featureBuffers.get();
+
+        while (labeledData.hasNext()) {
+            Pair<String, String> datum = labeledData.next();
+            // labels get ids in data order, as in the parallel version
+            featureDistribution.secondaryEncoding.encode(datum.getSecond());
+            countFeatures(datum, featureDistribution, featureExtractors, features);
+        }
+
+        scorer = null;
+    }
+
+    // Adds one labeled example to the model. The distribution keeps raw counts, so
+    // this is one feature extraction and a few increments rather than a retrain,
+    // and a compiled scorer is brought up to date by rewriting only the rows of
+    // the datum's features (see NaiveBayesScorer.update). Safe to call while other
+    // threads label. After freeze(), features outside the vocabulary are ignored
+    // and an unseen label is an error.
+    public synchronized void update(String datum, String label) {
+        checkTrainable();
+
+        if (featureDistribution.secondaryEncoding.encode(label) == Encoding.UNKNOWN)
+            throw new IllegalArgumentException("Label is not in frozen encoding: " + label);
+
+        FeatureBuffer features = featureBuffers.get();
+        countFeatures(new Pair<String, String>(datum, label), featureDistribution, featureExtractors, features);
+
+        NaiveBayesScorer compiled = scorer;
+        if (compiled != null)
+            scorer = compiled.update(featureDistribution, featureEncoder.size(), features.features, features.size());
+    }
+
+    public void train(Collection<Pair<String, String>> labeledData, int threads) throws InterruptedException {
+        train(labeledData.iterator(), threads);
+    }
+
+    // Scratch counts for one training thread: a CounterMap sharing the classifier's
+    // encodings, and the rows it has used since it was last cleared
+    protected static class Shard {
+        final CounterMap<Integer, String> counts;
+        final FeatureBuffer touched = new FeatureBuffer();
+
+        void increment(int feature, String label) {
+            // rows are the primary encoding's ids for features, not the features
+            int row = counts.primaryEncoding.lookup(feature);
+            boolean fresh = (row == Encoding.UNKNOWN || row >= counts.values.length || counts.secondaryRevIdx[row].isEmpty());
+
+            counts.incrementCount(feature, label);
+            if (fresh) touched.add(counts.primaryEncoding.lookup(feature));
+        }
+
+        void clear() {
+            for (int i = 0; i < touched.size(); i++) counts.clearRow(touched.get(i));
+            touched.clear();
+        }
+
+        Shard(CounterMap<Integer, String> model) {
+            // starts with no rows and grows to the features it sees
+            counts = new CounterMap<Integer, String>(0, new int[0], model.primaryEncoding, model.secondaryEncoding);
+        }
+    }
+
+    // Reads the data in batches of BATCH_SIZE per thread and counts contiguous
+    // slices of each batch on separate threads into Shards, merging the shards in
+    // data order. The shards are allocated once per call and only their used rows
+    // are merged and cleared, so a batch costs what it counts rather than the size
+    // of the model. Counts are whole numbers, so the merged model is identical to
+    // train(labeledData).
+    public void train(Iterator<Pair<String, String>> labeledData, int threads) throws InterruptedException {
+        checkTrainable();
+
+        List<Pair<String, String>> batch = new ArrayList<Pair<String, String>>(BATCH_SIZE * threads);
+        Shard[] shards = new Shard[threads];
+        for (int shard = 0; shard < threads; shard++) shards[shard] = new Shard(featureDistribution);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        try {
+            while (labeledData.hasNext()) {
+                batch.clear();
+                while (batch.size() < BATCH_SIZE * threads && labeledData.hasNext())
+                    batch.add(labeledData.next());
+
+                trainBatch(batch, pool, shards);
             }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        scorer = null;
+    }
+
+    protected void trainBatch(final List<Pair<String, String>> data, ExecutorService pool, Shard[] shards) throws InterruptedException, ExecutionException {
+        int length = data.size();
 
-	//	System.out.print("Labelling " + datum + ": [");
-	//	for (int i = 0; i < labelDistribution.length; i++)
-	//	    System.out.print(" " + featureDistribution.secondaryEncoding.decode(i) + " : " + labelDistribution[i] + ",");
-	//	System.out.println("");
+        // label ids decide argMax ties, so assign them in data order up front
+        for (int i = 0; i < length; i++)
+            featureDistribution.secondaryEncoding.encode(data.get(i).getSecond());
 
-        return featureDistribution.secondaryEncoding.decode(DoubleArrays.argMax(labelDistribution));
+        List<Future<Shard>> counted = new ArrayList<Future<Shard>>();
+
+        for (int s = 0; s < shards.length; s++) {
+            final Shard shard = shards[s];
+            final int start = (int) ((long) s * length / shards.length);
+            final int end = (int) ((long) (s + 1) * length / shards.length);
+
+            counted.add(pool.submit(new Callable<Shard>() {
+                public Shard call() {
+                    BufferedFeatureExtractor[] extractors = bufferedFeatureExtractors();
+                    FeatureBuffer features = new FeatureBuffer();
+
+                    for (int i = start; i < end; i++) {
+                        Pair<String, String> datum = data.get(i);
+                        extractFeatures(extractors, datum.getFirst(), 0, datum.getFirst().length(), features);
+
+                        for (int f = 0; f < features.size(); f++) {
+                            // UNKNOWN once the feature encoding is frozen
+                            if (features.get(f) != Encoding.UNKNOWN)
+                                shard.increment(features.get(f), datum.getSecond());
+                        }
+                    }
+
+                    return shard;
+                }
+            }));
+        }
+
+        for (Future<Shard> result : counted) {
+            Shard shard = result.get();
+            featureDistribution.incrementRows(shard.counts, shard.touched.features, shard.touched.size());
+            shard.clear();
+        }
+    }
+
+    // The compiled scorer for the current model, built on first use after training
+    protected NaiveBayesScorer scorer() {
+        NaiveBayesScorer compiled = scorer;
+
+        if (compiled == null) {
+            synchronized (this) {
+                compiled = scorer;
+                if (compiled == null) {
+                    if (mappedDistribution != null)
+                        compiled = NaiveBayesScorer.compile(mappedDistribution, featureEncoder.size());
+                    else
+                        compiled = NaiveBayesScorer.compile(featureDistribution, featureEncoder.size());
+                    scorer = compiled;
+                }
+            }
+        }
+
+        return compiled;
+    }
+
+    // Fills this thread's scratch buffer with the log score of each label for
+    // datum[start, end); uses only per-thread buffers, so allocates nothing.
+    // Features the model has never seen (UNKNOWN from a frozen feature encoding, or
+    // no row in featureDistribution) carry no evidence and are skipped without
+    // being added to the model
+    protected double[] labelScores(NaiveBayesScorer scorer, CharSequence datum, int start, int end) {
+        FeatureBuffer features = featureBuffers.get();
+        double[] scores = scorer.scores();
+
+        extractFeatures(featureExtractors, datum, start, end, features);
+        for (int i = 0; i < features.size(); i++)
+            scorer.addFeature(features.get(i), scores);
+
+        return scores;
+    }
+
+    public String label(CharSequence datum, int start, int end) {
+        long started = Metrics.ENABLED ? System.nanoTime() : 0;
+        NaiveBayesScorer scorer = scorer();
+        double[] scores = labelScores(scorer, datum, start, end);
+        String label = scorer.labelEncoding().decode(scorer.argMax(scores));
+
+        if (Metrics.ENABLED) Metrics.labelLatency.record(System.nanoTime() - started);
+        return label;
+    }
+
+    public String label(String datum) {
+        long started = Metrics.ENABLED ? System.nanoTime() : 0;
+        NaiveBayesScorer scorer = scorer();
+        String label;
+
+        if (cache != null) {
+            label = cachedLabeling(scorer, datum).label;
+        } else {
+            double[] scores = labelScores(scorer, datum, 0, datum.length());
+            label = scorer.labelEncoding().decode(scorer.argMax(scores));
+        }
+
+        if (Metrics.ENABLED) Metrics.labelLatency.record(System.nanoTime() - started);
+        return label;
     }
 
     public double score(String datum) {
-        double uniform = 1.0 / (double)featureDistribution.secondaryEncoding.size();
-        double[] labelDistribution = DoubleArrays.constantArray(featureDistribution.secondaryEncoding.size(), uniform);
-
-        for (FeatureExtractor extractor: featureExtractors)
-            for (int feature : extractor.extractFeatures(datum)) {
-                Counter<String> features = featureDistribution.getCounter(feature);
-                //              System.out.println("Feature " + featureEncoder.decode(feature) + ": " + features);
-                DoubleArrays.inPlaceMultiply(labelDistribution, features.values, 0, features.encoding.size());
+        NaiveBayesScorer scorer = scorer();
+
+        if (cache != null)
+            return cachedLabeling(scorer, datum).score;
+
+        return scorer.score(labelScores(scorer, datum, 0, datum.length()));
+    }
+
+    // Label and score of datum, computed together and shared by label and score,
+    // with what is needed to tell whether the model has changed under them
+    protected static final class CachedLabeling {
+        final NaiveBayesScorer scorer; // the scorer they were computed with
+        final long version;            // and its version at the time
+        final int[] features;          // the rows they were computed from
+        final String label;
+        final double score;
+
+        CachedLabeling(NaiveBayesScorer scorer, long version, int[] features, String label, double score) {
+            this.scorer = scorer;
+            this.version = version;
+            this.features = features;
+            this.label = label;
+            this.score = score;
+        }
+    }
+
+    // An entry is stale once its scorer has been replaced (retraining, freezing or
+    // loading) or update() has rewritten one of its features' rows; the cache
+    // drops it as a miss. Other entries survive updates.
+    protected CachedLabeling cachedLabeling(final NaiveBayesScorer scorer, String datum) {
+        LruCache<String, CachedLabeling> cache = this.cache;
+        CachedLabeling cached = cache.get(datum, new LruCache.Validator<CachedLabeling>() {
+            public boolean isCurrent(CachedLabeling cached) {
+                return scorer.isCurrent(cached.scorer, cached.version, cached.features, cached.features.length);
             }
+        });
+
+        if (cached == null) {
+            // read the version first, so an update racing with scoring makes the entry stale
+            long version = scorer.version();
+            double[] scores = labelScores(scorer, datum, 0, datum.length());
+            int[] features = featureBuffers.get().toArray();
+            cached = new CachedLabeling(scorer, version, features, scorer.labelEncoding().decode(scorer.argMax(scores)), scorer.score(scores));
+            cache.put(datum, cached);
+        }
+
+        return cached;
+    }
 
-	DoubleArrays.inPlaceNormalize(labelDistribution);
+    // Caches the results of label(String) and score(String) for up to maxEntries
+    // recently used inputs
+    public void enableCache(int maxEntries) {
+        cache = new LruCache<String, CachedLabeling>(maxEntries);
+    }
 
-        return DoubleArrays.max(labelDistribution);
+    public void disableCache() {
+        cache = null;
+    }
+
+    // Hit and miss counts of the cache, or null if it is disabled
+    public LruCache<String, ?> cache() {
+        return cache;
+    }
+
+    // Labels data[start, end) into batch, splitting the range in half until it is
+    // small enough to label directly. Each worker uses its own per-thread buffers.
+    protected class LabelTask extends RecursiveAction {
+        final NaiveBayesScorer scorer;
+        final CharSequence[] data;
+        final LabeledBatch batch;
+        final int start;
+        final int end;
+
+        protected void compute() {
+            if (end - start <= BATCH_GRAIN) {
+                for (int i = start; i < end; i++) {
+                    double[] scores = labelScores(scorer, data[i], 0, data[i].length());
+                    batch.labels[i] = scorer.argMax(scores);
+                    batch.scores[i] = scorer.score(scores);
+                }
+                return;
+            }
+
+            int middle = (start + end) >>> 1;
+            invokeAll(new LabelTask(scorer, data, batch, start, middle),
+                      new LabelTask(scorer, data, batch, middle, end));
+        }
+
+        LabelTask(NaiveBayesScorer scorer, CharSequence[] data, LabeledBatch batch, int start, int end) {
+            this.scorer = scorer;
+            this.data = data;
+            this.batch = batch;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    // Labels every datum in parallel on pool. Each result is computed exactly as
+    // label(datum) and score(datum) would compute it, so the output does not
+    // depend on the pool or on how the work is split.
+    public LabeledBatch labelBatch(CharSequence[] data, ForkJoinPool pool) {
+        NaiveBayesScorer scorer = scorer();
+        LabeledBatch batch = new LabeledBatch(data.length, scorer.labelEncoding());
+
+        pool.invoke(new LabelTask(scorer, data, batch, 0, data.length));
+
+        return batch;
+    }
+
+    public LabeledBatch labelBatch(CharSequence[] data) {
+        return labelBatch(data, ForkJoinPool.commonPool());
+    }
+
+    public LabeledBatch labelBatch(List<? extends CharSequence> data) {
+        return labelBatch(data.toArray(new CharSequence[data.size()]));
     }
 
     public Map<String, String> label(Set<String> data) {
@@ -127,16 +519,78 @@ public class NaiveBayesClassifier {
         return labels;
     }
 
+    // Makes the trained model read-only: the feature and label vocabularies are
+    // frozen, so labeling unseen input no longer grows the model
+    public void freeze() {
+        if (mappedDistribution != null)
+            return;
+
+        featureEncoder = featureEncoder.freeze();
+        featureDistribution.freeze();
+        featureExtractors = bufferedFeatureExtractors();
+        scorer = null;
+    }
+
+    // Writes the trained model as a ModelFile: feature strings, feature rows, labels,
+    // then the raw feature counts
+    public void save(String filename) throws IOException {
+        checkTrainable();
+
+        ModelFile.Writer writer = new ModelFile.Writer(filename);
+        try {
+            writer.writeStringEncoding(featureEncoder);
+            writer.writeIntegerEncoding(featureDistribution.primaryEncoding);
+            writer.writeStringEncoding(featureDistribution.secondaryEncoding);
+            writer.writeCounterMap(featureDistribution);
+        } finally {
+            writer.close();
+        }
+    }
+
+    // Replaces this classifier's model with one written by save(). The model is
+    // mapped rather than read, so it is ready immediately and is read-only.
+    public void load(String filename) throws IOException {
+        ModelFile.Reader reader = new ModelFile.Reader(filename);
+        try {
+            featureEncoder = reader.readStringEncoding();
+            Encoding<Integer> features = reader.readIntegerEncoding();
+            Encoding<String> labels = reader.readStringEncoding();
+            mappedDistribution = reader.readCounterMap(features, labels);
+        } finally {
+            reader.close();
+        }
+
+        featureDistribution = null;
+        featureExtractors = bufferedFeatureExtractors();
+        scorer = null;
+    }
+
     public void debugLabeling(String datum) {
         System.out.println(datum + ": Chose label " + label(datum));
     }
 
     public NaiveBayesClassifier() {
-        featureDistribution = new CounterMap<Integer, String>();
+        // concurrent encodings, so train(data, threads) can share them between shards
+        featureDistribution = new CounterMap<Integer, String>(new ConcurrentEncoding<Integer>(), new ConcurrentEncoding<String>());
 
-        featureEncoder = new Encoding<String>();
+        featureEncoder = new ConcurrentEncoding<String>();
 
-        featureExtractors = this.featureExtractors();
+        featureExtractors = bufferedFeatureExtractors();
+    }
+
+    // featureExtractors(), with plain extractors adapted to the buffered contract
+    protected BufferedFeatureExtractor[] bufferedFeatureExtractors() {
+        FeatureExtractor[] extractors = featureExtractors();
+        BufferedFeatureExtractor[] ret = new BufferedFeatureExtractor[extractors.length];
+
+        for (int i = 0; i < extractors.length; i++) {
+            if (extractors[i] instanceof BufferedFeatureExtractor)
+                ret[i] = (BufferedFeatureExtractor) extractors[i];
+            else
+                ret[i] = new ArrayExtractorAdapter(extractors[i]);
+        }
+
+        return ret;
     }
 
     protected FeatureExtractor[] featureExtractors() {
@@ -147,38 +601,39 @@ public class NaiveBayesClassifier {
 	return ret;
     }
 
-    public static Set<Pair<String, String>> readDelimitedData(String filename, String delimiter) throws IOException {
-        FileReader fr = new FileReader(filename);
-        BufferedReader br = new BufferedReader(fr);
-        Set<Pair<String, String>> pairs = new HashSet<Pair<String, String>>();
-
-        while (br.ready()) {
-            String line = br.readLine();
-            String[] split = line.split(delimiter);
+    // Reads a whole file into memory; use a DelimitedReader to stream instead
+    public static List<Pair<String, String>> readDelimitedData(String filename, String delimiter) throws IOException {
+        DelimitedReader reader = new DelimitedReader(filename, delimiter);
+        List<Pair<String, String>> pairs = new ArrayList<Pair<String, String>>();
 
-            pairs.add(new Pair<String,String>(split[1], split[0]));
+        try {
+            while (reader.hasNext())
+                pairs.add(reader.next());
+        } finally {
+            reader.close();
         }
 
-        br.close();
-        fr.close();
-
         return pairs;
     }
 
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
         System.out.println("*** Naive Bayes Classifier ***");
 
         boolean verbose = false;
         NaiveBayesClassifier classifier = new NaiveBayesClassifier();
 
         /** Read in training and test data **/
-        Set<Pair<String, String>> labeledTrainingData = readDelimitedData("data/pnp-train.txt", "\t");
-        Set<Pair<String, String>> labeledTestData = readDelimitedData("data/pnp-test.txt", "\t");
+        List<Pair<String, String>> labeledTestData = readDelimitedData("data/pnp-test.txt", "\t");
 	
 	Set<String> testData = new HashSet<String>();
 	for (Pair<String,String> datum : labeledTestData) testData.add(datum.getFirst());
 	
-        classifier.train(labeledTrainingData);
+        DelimitedReader labeledTrainingData = new DelimitedReader("data/pnp-train.txt", "\t");
+        try {
+            classifier.train(labeledTrainingData, Runtime.getRuntime().availableProcessors());
+        } finally {
+            labeledTrainingData.close();
+        }
 
         Map<String, String> guessedLabels = classifier.label(testData);
 
@@ -0,0 +1,216 @@
+package org.mhjones.nlp.examples;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mhjones.nlp.math.DoubleArrays;
+import org.mhjones.nlp.math.DoubleMatrix;
+import org.mhjones.nlp.util.CounterMap;
+import org.mhjones.nlp.util.Encoding;
+import org.mhjones.nlp.util.MappedCounterMap;
+
+// Compiled inference model for NaiveBayesClassifier: a dense row-major matrix of
+// log P(label | feature) indexed by feature id and label id. Scoring adds rows
+// into a per-thread scratch buffer, so it allocates nothing per datum and does not
+// underflow on long inputs the way a product of probabilities does.
+//
+// A model mapped from a ModelFile is scored straight from its rows instead, by
+// MappedNaiveBayesScorer, so loading it copies nothing onto the heap.
+//
+// update() keeps a compiled scorer in step with new counts by recomputing only the
+// rows of the features a datum touched. The table is allocated with spare
+// capacity that doubles as features or labels appear, and a scorer with more
+// features or labels is a new instance sharing the table, so a thread scoring
+// with an older instance only reads the part it knows. Each row records the
+// update that last changed it, so callers can tell whether a result computed
+// from some rows is still current.
+public class NaiveBayesScorer {
+    final int features;
+    final int labels;
+    final DoubleMatrix logProbabilities; // capacity x label capacity, shared by grown instances
+    final long[] rowVersions;            // update that last rewrote each row, shared likewise
+    final AtomicLong updates;            // shared by every scorer grown from one compile
+    final Encoding<String> labelEncoding;
+
+    final ThreadLocal<double[]> scratch = new ThreadLocal<double[]>() {
+        protected double[] initialValue() {
+            return new double[labels];
+        }
+    };
+
+    public int features() {
+        return features;
+    }
+
+    public int labels() {
+        return labels;
+    }
+
+    public Encoding<String> labelEncoding() {
+        return labelEncoding;
+    }
+
+    // This thread's score buffer, cleared for a new datum
+    public double[] scores() {
+        double[] scores = scratch.get();
+        Arrays.fill(scores, 0.0);
+        return scores;
+    }
+
+    // Features outside the table (UNKNOWN, or seen only after compiling) carry no evidence
+    public void addFeature(int feature, double[] scores) {
+        if (feature < 0 || feature >= features)
+            return;
+
+        double[] table = logProbabilities.data;
+        int offset = logProbabilities.offset(feature);
+        for (int label = 0; label < labels; label++)
+            scores[label] += table[offset + label];
+    }
+
+    public int argMax(double[] scores) {
+        return DoubleArrays.argMax(scores, 0, labels);
+    }
+
+    // Posterior probability of the best label, normalizing in log space
+    public double score(double[] scores) {
+        double best = scores[argMax(scores)];
+        return Math.exp(best - DoubleArrays.logSumExp(scores, 0, labels));
+    }
+
+    NaiveBayesScorer(int features, int labels, DoubleMatrix logProbabilities, long[] rowVersions, AtomicLong updates, Encoding<String> labelEncoding) {
+        this.features = features;
+        this.labels = labels;
+        this.logProbabilities = logProbabilities;
+        this.rowVersions = rowVersions;
+        this.updates = updates;
+        this.labelEncoding = labelEncoding;
+    }
+
+    NaiveBayesScorer(int features, Encoding<String> labelEncoding) {
+        this(features, labelEncoding.size(), new DoubleMatrix(features, labelEncoding.size()), new long[features], new AtomicLong(), labelEncoding);
+    }
+
+    // Number of updates applied since compiling
+    public long version() {
+        return updates.get();
+    }
+
+    // Whether a result computed with scorer at the given version from the rows of
+    // features[0, count) would still come out the same with this scorer: both
+    // descend from the same compile, no label has been added since, and none of
+    // those rows has been updated since
+    public boolean isCurrent(NaiveBayesScorer scorer, long version, int[] features, int count) {
+        if (scorer.updates != updates || scorer.labels != labels)
+            return false;
+
+        for (int i = 0; i < count; i++) {
+            int feature = features[i];
+            if (feature >= 0 && feature < this.features && rowVersions[feature] > version)
+                return false;
+        }
+
+        return true;
+    }
+
+    // Writes feature's row from its counts: log(count) - log(row total) for the
+    // labels it was seen with and -infinity for the rest. Each cell is written
+    // once, so a concurrent reader sees its old or its new value.
+    void compileRow(CounterMap<Integer, String> featureDistribution, int feature, int row, double[] buffer) {
+        Arrays.fill(buffer, 0, labels, Double.NEGATIVE_INFINITY);
+
+        double logTotal = Math.log(featureDistribution.rowTotals[row]);
+        int used = featureDistribution.secondaryRevIdx[row].size();
+        for (int pos = 0; pos < used; pos++)
+            buffer[featureDistribution.secondaryIdx[row][pos]] = Math.log(featureDistribution.values[row][pos]) - logTotal;
+
+        System.arraycopy(buffer, 0, logProbabilities.data, logProbabilities.offset(feature), labels);
+    }
+
+    // Feature's row in featureDistribution, or UNKNOWN if it has none
+    static int rowOf(CounterMap<Integer, String> featureDistribution, int feature) {
+        int row = featureDistribution.primaryEncoding.lookup(feature);
+        if (row == Encoding.UNKNOWN || row >= featureDistribution.values.length)
+            return Encoding.UNKNOWN;
+        return row;
+    }
+
+    // This scorer widened to features x labels. Within the table's capacity the
+    // new instance shares it; otherwise the table is copied into one twice as large.
+    // New rows are 0 (no evidence); counted rows get -infinity for new labels.
+    NaiveBayesScorer grow(CounterMap<Integer, String> featureDistribution, int newFeatures, int newLabels) {
+        DoubleMatrix table = logProbabilities;
+        long[] versions = rowVersions;
+
+        if (newFeatures > table.rows() || newLabels > table.columns()) {
+            table = new DoubleMatrix(Math.max(newFeatures, Math.min(Integer.MAX_VALUE / 2, table.rows()) * 2),
+                                     Math.max(newLabels, table.columns() * 2));
+            for (int feature = 0; feature < features; feature++)
+                System.arraycopy(logProbabilities.data, logProbabilities.offset(feature), table.data, table.offset(feature), labels);
+            versions = Arrays.copyOf(rowVersions, table.rows());
+        }
+
+        if (newLabels > labels) {
+            for (int feature = 0; feature < features; feature++) {
+                if (rowOf(featureDistribution, feature) != Encoding.UNKNOWN) {
+                    int offset = table.offset(feature);
+                    Arrays.fill(table.data, offset + labels, offset + newLabels, Double.NEGATIVE_INFINITY);
+                }
+            }
+        }
+
+        return new NaiveBayesScorer(newFeatures, newLabels, table, versions, updates, labelEncoding);
+    }
+
+    // Brings the scorer up to date after counts were added for touched[0, count),
+    // returning the scorer to use from now on: this one, or a wider one if the
+    // feature or label encodings have grown. Results match compiling afresh.
+    // Callers must not run updates concurrently with each other.
+    public NaiveBayesScorer update(CounterMap<Integer, String> featureDistribution, int features, int[] touched, int count) {
+        int newLabels = featureDistribution.secondaryEncoding.size();
+        NaiveBayesScorer scorer = this;
+        if (features > this.features || newLabels > labels)
+            scorer = grow(featureDistribution, Math.max(features, this.features), Math.max(newLabels, labels));
+
+        // publish the new version only after its rows are written, so a reader
+        // that saw the old version treats anything computed meanwhile as stale
+        long version = updates.get() + 1;
+        double[] buffer = new double[scorer.labels];
+
+        for (int i = 0; i < count; i++) {
+            int feature = touched[i];
+            if (feature < 0 || feature >= scorer.features)
+                continue;
+
+            int row = rowOf(featureDistribution, feature);
+            if (row == Encoding.UNKNOWN)
+                continue;
+
+            scorer.rowVersions[feature] = version;
+            scorer.compileRow(featureDistribution, feature, row, buffer);
+        }
+
+        updates.set(version);
+        return scorer;
+    }
+
+    // Rows are indexed by feature id and hold raw counts, normalized here as
+    // log(count) - log(row total); features without a row keep log 1 = 0
+    public static NaiveBayesScorer compile(CounterMap<Integer, String> featureDistribution, int features) {
+        NaiveBayesScorer scorer = new NaiveBayesScorer(features, featureDistribution.secondaryEncoding);
+        double[] buffer = new double[scorer.labels];
+
+        for (int feature = 0; feature < features; feature++) {
+            int row = rowOf(featureDistribution, feature);
+            if (row != Encoding.UNKNOWN)
+                scorer.compileRow(featureDistribution, feature, row, buffer);
+        }
+
+        return scorer;
+    }
+
+    // Scores from the mapped rows as they stand, without building a table
+    public static NaiveBayesScorer compile(MappedCounterMap<Integer, String> featureDistribution, int features) {
+        return new MappedNaiveBayesScorer(featureDistribution, features);
+    }
+}
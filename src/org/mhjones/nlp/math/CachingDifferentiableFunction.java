@@ -0,0 +1,63 @@
+package org.mhjones.nlp.math;
+
+import java.util.Arrays;
+
+// DifferentiableFunction that computes value and gradient together and remembers
+// them for the last point, so asking for the value and then the gradient at the
+// same point (as a line search does) evaluates the function once. Subclasses
+// implement calculate(). Not safe for concurrent callers.
+public abstract class CachingDifferentiableFunction implements DifferentiableFunction {
+    final int dimension;
+    final double[] lastX;
+    final double[] lastGradient;
+    double lastValue;
+    boolean cached;
+    int evaluations;
+
+    // Writes the gradient at x into gradient (zeroed beforehand) and returns the value
+    protected abstract double calculate(double[] x, double[] gradient);
+
+    protected void ensureCached(double[] x) {
+	if (x.length != dimension)
+	    throw new IllegalArgumentException("Point has dimension " + x.length + ", function has " + dimension);
+
+	if (cached && Arrays.equals(x, lastX))
+	    return;
+
+	Arrays.fill(lastGradient, 0.0);
+	lastValue = calculate(x, lastGradient);
+	System.arraycopy(x, 0, lastX, 0, dimension);
+	cached = true;
+	evaluations++;
+    }
+
+    public int dimension() {
+	return dimension;
+    }
+
+    public double valueAt(double[] x) {
+	ensureCached(x);
+	return lastValue;
+    }
+
+    public double[] derivativeAt(double[] x) {
+	ensureCached(x);
+	return lastGradient;
+    }
+
+    // Number of times calculate() has run
+    public int evaluations() {
+	return evaluations;
+    }
+
+    // Forgets the cached point, e.g. after the data behind the function changed
+    public void invalidate() {
+	cached = false;
+    }
+
+    public CachingDifferentiableFunction(int dimension) {
+	this.dimension = dimension;
+	this.lastX = new double[dimension];
+	this.lastGradient = new double[dimension];
+    }
+}
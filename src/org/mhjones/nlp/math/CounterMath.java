@@ -0,0 +1,300 @@
+package org.mhjones.nlp.math;
+
+import org.mhjones.nlp.util.CompactCounterMap;
+import org.mhjones.nlp.util.Counter;
+import org.mhjones.nlp.util.CounterMap;
+import org.mhjones.nlp.util.Encoding;
+import org.mhjones.nlp.util.IntegerMap;
+
+// Operations on the raw backing arrays of counters that share an encoding, so
+// nothing is decoded, hashed or interned per key. Dense Counters are walked
+// position by position; CounterMap rows are joined by probing the other row's
+// reverse index, and CompactCounterMap rows (sorted by secondary) by merging.
+// Entries past the end of an array count as 0. Divergences treat their inputs as
+// unnormalized counts, dividing by the totals on the fly, and are in nats.
+// Counters must hold counts or probabilities, not logs.
+public class CounterMath {
+    static final int DOT = 0;
+    static final int KL = 1;
+    static final int JS = 2;
+
+    // Contribution of one key with normalized masses p and q
+    static double term(int op, double p, double q) {
+	switch (op) {
+	case DOT:
+	    return p * q;
+	case KL:
+	    if (p == 0.0) return 0.0;
+	    if (q == 0.0) return Double.POSITIVE_INFINITY;
+	    return p * Math.log(p / q);
+	default:
+	    double m = 0.5 * (p + q);
+	    double sum = 0.0;
+	    if (p > 0.0) sum += 0.5 * p * Math.log(p / m);
+	    if (q > 0.0) sum += 0.5 * q * Math.log(q / m);
+	    return sum;
+	}
+    }
+
+    static double checkTotal(double total) {
+	if (!(total > 0.0))
+	    throw new IllegalArgumentException("Distribution has no mass: " + total);
+	return total;
+    }
+
+    static void checkEncodings(Encoding<?> x, Encoding<?> y) {
+	if (x != y)
+	    throw new IllegalArgumentException("Counters must share an encoding");
+    }
+
+    // Dense kernels
+
+    public static double dot(double[] x, double[] y) {
+	int length = Math.min(x.length, y.length);
+	double sum = 0.0;
+	for (int i = 0; i < length; i++) sum += x[i] * y[i];
+	return sum;
+    }
+
+    public static double cosine(double[] x, double[] y) {
+	double norms = Math.sqrt(dot(x, x) * dot(y, y));
+	return (norms == 0.0) ? 0.0 : dot(x, y) / norms;
+    }
+
+    static double divergence(int op, double[] p, double[] q) {
+	double pTotal = checkTotal(DoubleArrays.sum(p));
+	double qTotal = checkTotal(DoubleArrays.sum(q));
+	int length = Math.max(p.length, q.length);
+
+	double sum = 0.0;
+	for (int i = 0; i < length; i++) {
+	    double pi = (i < p.length) ? p[i] / pTotal : 0.0;
+	    double qi = (i < q.length) ? q[i] / qTotal : 0.0;
+	    sum += term(op, pi, qi);
+	}
+	return sum;
+    }
+
+    // KL(p || q); infinite if q misses mass that p has
+    public static double klDivergence(double[] p, double[] q) {
+	return divergence(KL, p, q);
+    }
+
+    // Jensen-Shannon divergence, symmetric and at most log 2
+    public static double jsDivergence(double[] p, double[] q) {
+	return divergence(JS, p, q);
+    }
+
+    public static void normalize(double[] x, int start, int length) {
+	DoubleArrays.inPlaceDivide(x, DoubleArrays.sum(x, start, length), start, length);
+    }
+
+    // Log counts or unnormalized log probabilities to log probabilities
+    public static void logNormalize(double[] x, int start, int length) {
+	DoubleArrays.inPlaceAdd(x, -DoubleArrays.logSumExp(x, start, length), start, length);
+    }
+
+    // Add-alpha smoothing of the first length counts into out (which may be
+    // counts itself): out[i] = (counts[i] + alpha) / (total + alpha * length)
+    public static void smooth(double[] counts, double alpha, double[] out, int length) {
+	int stored = Math.min(counts.length, length);
+	double total = DoubleArrays.sum(counts, 0, stored) + alpha * length;
+
+	for (int i = 0; i < length; i++)
+	    out[i] = (((i < stored) ? counts[i] : 0.0) + alpha) / total;
+    }
+
+    // Linear interpolation of two distributions over the first length keys, each
+    // normalized by its own total: out[i] = lambda * p[i] + (1 - lambda) * background[i]
+    public static void interpolate(double[] p, double[] background, double lambda, double[] out, int length) {
+	int pStored = Math.min(p.length, length);
+	int bStored = Math.min(background.length, length);
+	double pScale = lambda / checkTotal(DoubleArrays.sum(p, 0, pStored));
+	double bScale = (1.0 - lambda) / checkTotal(DoubleArrays.sum(background, 0, bStored));
+
+	for (int i = 0; i < length; i++) {
+	    double pi = (i < pStored) ? p[i] : 0.0;
+	    double bi = (i < bStored) ? background[i] : 0.0;
+	    out[i] = pScale * pi + bScale * bi;
+	}
+    }
+
+    // Counters
+
+    public static <E> double dot(Counter<E> x, Counter<E> y) {
+	checkEncodings(x.encoding, y.encoding);
+	return dot(x.values, y.values);
+    }
+
+    public static <E> double cosine(Counter<E> x, Counter<E> y) {
+	checkEncodings(x.encoding, y.encoding);
+	return cosine(x.values, y.values);
+    }
+
+    public static <E> double klDivergence(Counter<E> p, Counter<E> q) {
+	checkEncodings(p.encoding, q.encoding);
+	return klDivergence(p.values, q.values);
+    }
+
+    public static <E> double jsDivergence(Counter<E> p, Counter<E> q) {
+	checkEncodings(p.encoding, q.encoding);
+	return jsDivergence(p.values, q.values);
+    }
+
+    // Add-alpha smoothed distribution over the whole encoding, indexed by encoded key
+    public static <E> double[] smooth(Counter<E> counts, double alpha) {
+	double[] out = new double[counts.encoding.size()];
+	smooth(counts.values, alpha, out, out.length);
+	return out;
+    }
+
+    public static <E> double[] interpolate(Counter<E> p, Counter<E> background, double lambda) {
+	checkEncodings(p.encoding, background.encoding);
+	double[] out = new double[p.encoding.size()];
+	interpolate(p.values, background.values, lambda, out, out.length);
+	return out;
+    }
+
+    // log P(key) for every encoded key, leaving the counts alone
+    public static <E> double[] logDistribution(Counter<E> counts) {
+	int size = counts.encoding.size();
+	double[] out = new double[size];
+	double logTotal = Math.log(DoubleArrays.sum(counts.values, 0, Math.min(size, counts.values.length)));
+
+	for (int i = 0; i < size; i++)
+	    out[i] = ((i < counts.values.length) ? Math.log(counts.values[i]) : Double.NEGATIVE_INFINITY) - logTotal;
+	return out;
+    }
+
+    // CounterMap rows: hash joins through the reverse index
+
+    static int used(CounterMap<?,?> map, int row) {
+	return (row < map.values.length) ? map.secondaryRevIdx[row].size() : 0;
+    }
+
+    // Sum of term(p, q) over the keys present in either row, with p and q scaled
+    // by pScale and qScale. Keys only in q are found by probing p.
+    static <F> double join(int op, CounterMap<?,F> p, int pRow, double pScale, CounterMap<?,F> q, int qRow, double qScale) {
+	int pUsed = used(p, pRow);
+	int qUsed = used(q, qRow);
+	double sum = 0.0;
+
+	for (int pos = 0; pos < pUsed; pos++) {
+	    int qPos = (qUsed == 0) ? IntegerMap.MISSING : q.secondaryRevIdx[qRow].get(p.secondaryIdx[pRow][pos]);
+	    double qi = (qPos == IntegerMap.MISSING) ? 0.0 : q.values[qRow][qPos] * qScale;
+	    sum += term(op, p.values[pRow][pos] * pScale, qi);
+	}
+
+	// keys only in q matter when a missing p still contributes
+	if (op == JS) {
+	    for (int pos = 0; pos < qUsed; pos++) {
+		if (pUsed == 0 || !p.secondaryRevIdx[pRow].containsKey(q.secondaryIdx[qRow][pos]))
+		    sum += term(op, 0.0, q.values[qRow][pos] * qScale);
+	    }
+	}
+
+	return sum;
+    }
+
+    static double rowTotal(CounterMap<?,?> map, int row) {
+	return (row < map.values.length) ? map.rowTotals[row] : 0.0;
+    }
+
+    public static <F> double dot(CounterMap<?,F> x, int xRow, CounterMap<?,F> y, int yRow) {
+	checkEncodings(x.secondaryEncoding, y.secondaryEncoding);
+
+	// probe the larger row with the smaller one
+	if (used(x, xRow) > used(y, yRow))
+	    return join(DOT, y, yRow, 1.0, x, xRow, 1.0);
+	return join(DOT, x, xRow, 1.0, y, yRow, 1.0);
+    }
+
+    public static <F> double cosine(CounterMap<?,F> x, int xRow, CounterMap<?,F> y, int yRow) {
+	double norms = Math.sqrt(dot(x, xRow, x, xRow) * dot(y, yRow, y, yRow));
+	return (norms == 0.0) ? 0.0 : dot(x, xRow, y, yRow) / norms;
+    }
+
+    public static <F> double klDivergence(CounterMap<?,F> p, int pRow, CounterMap<?,F> q, int qRow) {
+	checkEncodings(p.secondaryEncoding, q.secondaryEncoding);
+	return join(KL, p, pRow, 1.0 / checkTotal(rowTotal(p, pRow)), q, qRow, 1.0 / checkTotal(rowTotal(q, qRow)));
+    }
+
+    public static <F> double jsDivergence(CounterMap<?,F> p, int pRow, CounterMap<?,F> q, int qRow) {
+	checkEncodings(p.secondaryEncoding, q.secondaryEncoding);
+	return join(JS, p, pRow, 1.0 / checkTotal(rowTotal(p, pRow)), q, qRow, 1.0 / checkTotal(rowTotal(q, qRow)));
+    }
+
+    // Sparse row against a dense counter over the same keys
+    public static <F> double dot(CounterMap<?,F> x, int xRow, Counter<F> y) {
+	checkEncodings(x.secondaryEncoding, y.encoding);
+
+	int xUsed = used(x, xRow);
+	double sum = 0.0;
+	for (int pos = 0; pos < xUsed; pos++) {
+	    int eSecondary = x.secondaryIdx[xRow][pos];
+	    if (eSecondary < y.values.length)
+		sum += x.values[xRow][pos] * y.values[eSecondary];
+	}
+	return sum;
+    }
+
+    // Rewrites a row of counts as log probabilities and marks it in logRows, as
+    // CounterMap.logNormalize does; its total becomes 1, the mass it describes
+    public static void logNormalize(CounterMap<?,?> map, int row) {
+	int rowUsed = used(map, row);
+	if (rowUsed == 0)
+	    return;
+
+	DoubleArrays.inPlaceLog(map.values[row], 0, rowUsed);
+	logNormalize(map.values[row], 0, rowUsed);
+	map.rowTotals[row] = 1.0;
+	map.logRows[row] = true;
+    }
+
+    // CompactCounterMap rows: merge joins over sorted columns
+
+    static <F> double merge(int op, CompactCounterMap<?,F> p, int pRow, double pScale, CompactCounterMap<?,F> q, int qRow, double qScale) {
+	int i = (pRow < p.rows()) ? p.rowOffsets[pRow] : 0;
+	int pEnd = (pRow < p.rows()) ? p.rowOffsets[pRow+1] : 0;
+	int j = (qRow < q.rows()) ? q.rowOffsets[qRow] : 0;
+	int qEnd = (qRow < q.rows()) ? q.rowOffsets[qRow+1] : 0;
+	double sum = 0.0;
+
+	while (i < pEnd || j < qEnd) {
+	    int pColumn = (i < pEnd) ? p.columns[i] : Integer.MAX_VALUE;
+	    int qColumn = (j < qEnd) ? q.columns[j] : Integer.MAX_VALUE;
+
+	    if (pColumn == qColumn) sum += term(op, p.values[i++] * pScale, q.values[j++] * qScale);
+	    else if (pColumn < qColumn) sum += term(op, p.values[i++] * pScale, 0.0);
+	    else sum += term(op, 0.0, q.values[j++] * qScale);
+	}
+
+	return sum;
+    }
+
+    static double rowTotal(CompactCounterMap<?,?> map, int row) {
+	if (row >= map.rows())
+	    return 0.0;
+	return DoubleArrays.sum(map.values, map.rowOffsets[row], map.rowOffsets[row+1] - map.rowOffsets[row]);
+    }
+
+    public static <F> double dot(CompactCounterMap<?,F> x, int xRow, CompactCounterMap<?,F> y, int yRow) {
+	checkEncodings(x.secondaryEncoding, y.secondaryEncoding);
+	return merge(DOT, x, xRow, 1.0, y, yRow, 1.0);
+    }
+
+    public static <F> double cosine(CompactCounterMap<?,F> x, int xRow, CompactCounterMap<?,F> y, int yRow) {
+	double norms = Math.sqrt(dot(x, xRow, x, xRow) * dot(y, yRow, y, yRow));
+	return (norms == 0.0) ? 0.0 : dot(x, xRow, y, yRow) / norms;
+    }
+
+    public static <F> double klDivergence(CompactCounterMap<?,F> p, int pRow, CompactCounterMap<?,F> q, int qRow) {
+	checkEncodings(p.secondaryEncoding, q.secondaryEncoding);
+	return merge(KL, p, pRow, 1.0 / checkTotal(rowTotal(p, pRow)), q, qRow, 1.0 / checkTotal(rowTotal(q, qRow)));
+    }
+
+    public static <F> double jsDivergence(CompactCounterMap<?,F> p, int pRow, CompactCounterMap<?,F> q, int qRow) {
+	checkEncodings(p.secondaryEncoding, q.secondaryEncoding);
+	return merge(JS, p, pRow, 1.0 / checkTotal(rowTotal(p, pRow)), q, qRow, 1.0 / checkTotal(rowTotal(q, qRow)));
+    }
+}
@@ -0,0 +1,12 @@
+package org.mhjones.nlp.math;
+
+// A function from R^dimension to R with its gradient, for minimizers
+public interface DifferentiableFunction {
+    int dimension();
+
+    double valueAt(double[] x);
+
+    // The gradient at x; callers must not modify it, and it may be overwritten by
+    // the next evaluation
+    double[] derivativeAt(double[] x);
+}
@@ -3,22 +3,29 @@ package org.mhjones.nlp.math;
 import java.util.Arrays;
 
 public class DoubleArrays {
-    public static double sum(double[] x) {
-	double sum = 0.0;
-
-	for (int i = 0; i < x.length; i++)
-	    sum += x[i];
+    // The reductions below keep four independent accumulators (lanes) so the CPU can
+    // pipeline them instead of waiting on one serial dependency chain; the simple
+    // elementwise loops are left in the form the JIT auto-vectorizes.
 
-	return sum;
+    public static double sum(double[] x) {
+	return sum(x, 0, x.length);
     }
 
     public static double sum(double[] x, int start, int length) {
-	double sum = 0.0;
-
-	for (int i = start; i < length+start; i++)
-	    sum += x[i];
+	double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+	int end = start + length;
+	int i = start;
+
+	for (; i + 3 < end; i += 4) {
+	    s0 += x[i];
+	    s1 += x[i+1];
+	    s2 += x[i+2];
+	    s3 += x[i+3];
+	}
+	for (; i < end; i++)
+	    s0 += x[i];
 
-	return sum;
+	return (s0 + s1) + (s2 + s3);
     }
 
     public static void inPlaceAdd(double[] x, double y) {
@@ -52,14 +59,16 @@ public class DoubleArrays {
 	    x[i] *= y[i];
     }
 
+    // Multiplies by the reciprocal, which is within an ulp of dividing and much cheaper
     public static void inPlaceDivide(double[] x, double y) {
-	for (int i = 0; i < x.length; i++)
-	    x[i] /= y;
+	inPlaceDivide(x, y, 0, x.length);
     }
 
     public static void inPlaceDivide(double[] x, double y, int start, int length) {
+	double reciprocal = 1.0 / y;
+
 	for (int i = start; i < length+start; i++)
-	    x[i] /= y;
+	    x[i] *= reciprocal;
     }
 
     public static void inPlaceLog(double[] x) {
@@ -77,44 +86,90 @@ public class DoubleArrays {
 	inPlaceDivide(x, total);
     }
     
+    // log(sum(exp(x))), shifted by the max so long sums of log probabilities do not underflow
+    public static double logSumExp(double[] x, int start, int length) {
+	double max = x[argMax(x, start, length)];
+
+	if (max == Double.NEGATIVE_INFINITY || max == Double.POSITIVE_INFINITY)
+	    return max;
+
+	double sum = 0.0;
+	for (int i = start; i < length+start; i++)
+	    sum += Math.exp(x[i] - max);
+
+	return max + Math.log(sum);
+    }
+
+    public static double logSumExp(double[] x) {
+	return logSumExp(x, 0, x.length);
+    }
+
+    // Elements that are NaN are skipped, unless the first one is NaN, in which case it is returned
     public static double max(double[] x) {
-	double val = x[0];
+	return max(x, 0, x.length);
+    }
+
+    public static double max(double[] x, int start, int length) {
+	double first = x[start];
+	if (first != first) return first;
 
-	for (int i = 1; i < x.length; i++) {
-	    if (x[i] > val) {
-		val = x[i];
-	    }
+	double m0 = first, m1 = first, m2 = first, m3 = first;
+	int end = start + length;
+	int i = start + 1;
+
+	for (; i + 3 < end; i += 4) {
+	    if (x[i] > m0) m0 = x[i];
+	    if (x[i+1] > m1) m1 = x[i+1];
+	    if (x[i+2] > m2) m2 = x[i+2];
+	    if (x[i+3] > m3) m3 = x[i+3];
 	}
+	for (; i < end; i++)
+	    if (x[i] > m0) m0 = x[i];
 
-	return val;
+	if (m1 > m0) m0 = m1;
+	if (m3 > m2) m2 = m3;
+	return (m2 > m0) ? m2 : m0;
     }
-    
-    public static int argMax(double[] x) {
-	int arg = 0;
-	double val = x[0];
-
-	for (int i = 1; i < x.length; i++) {
-	    if (x[i] > val) {
-		arg = i;
-		val = x[i];
-	    }
-	}
 
-	return arg;
+    public static int argMax(double[] x) {
+	return argMax(x, 0, x.length);
     }
-    
+
+    // First index of the maximum; as with max, the first element wins if it is NaN
     public static int argMax(double[] x, int start, int length) {
-	int arg = start;
-	double val = x[start];
-
-	for (int i = start+1; i < length+start; i++) {
-	    if (x[i] > val) {
-		arg = i;
-		val = x[i];
-	    }
+	double first = x[start];
+	if (first != first) return start;
+
+	// each lane keeps the first index of its own maximum
+	double v0 = first, v1 = first, v2 = first, v3 = first;
+	int a0 = start, a1 = start, a2 = start, a3 = start;
+	int end = start + length;
+	int i = start + 1;
+
+	for (; i + 3 < end; i += 4) {
+	    if (x[i] > v0) { v0 = x[i]; a0 = i; }
+	    if (x[i+1] > v1) { v1 = x[i+1]; a1 = i+1; }
+	    if (x[i+2] > v2) { v2 = x[i+2]; a2 = i+2; }
+	    if (x[i+3] > v3) { v3 = x[i+3]; a3 = i+3; }
 	}
+	for (; i < end; i++)
+	    if (x[i] > v0) { v0 = x[i]; a0 = i; }
+
+	// ties go to the earliest index
+	if (v1 > v0 || (v1 == v0 && a1 < a0)) { v0 = v1; a0 = a1; }
+	if (v3 > v2 || (v3 == v2 && a3 < a2)) { v2 = v3; a2 = a3; }
+	if (v2 > v0 || (v2 == v0 && a2 < a0)) { v0 = v2; a0 = a2; }
+
+	return a0;
+    }
 
-	return arg;
+    // argMax over x[start], x[start+step], ... (length elements), by the same rule;
+    // returns the absolute index
+    public static int argMax(double[] x, int start, int step, int length) {
+	int best = start;
+	for (int i = 1, pos = start + step; i < length; i++, pos += step)
+	    if (x[pos] > x[best]) best = pos;
+	return best;
     }
 
     public static double[] resizeArray(double[] array, int newLength) {
@@ -23,7 +23,7 @@ public class DoubleArrays2D {
     public static double[][] constantArray(int primaryLength, int secondaryLength, double defaultValue) {
 	double[][] ret = new double[primaryLength][];
 	
-	for (int i = 0; i < secondaryLength; i++)
+	for (int i = 0; i < primaryLength; i++)
 	    ret[i] = DoubleArrays.constantArray(secondaryLength, defaultValue);
 
 	return ret;
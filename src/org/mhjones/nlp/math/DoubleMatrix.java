@@ -0,0 +1,276 @@
+package org.mhjones.nlp.math;
+
+import java.util.Arrays;
+
+// Dense matrix stored row-major in one double[]: element (row, column) is at
+// data[row*stride + column]. stride is the allocated row width, which may exceed
+// columns so that adding columns does not always move every row. Scanning a row
+// is a contiguous run; scanning a column steps by stride through the same block.
+public class DoubleMatrix {
+    public double[] data;
+    int rows;
+    int columns;
+    int stride;
+
+    // Strided view of one row or column; reads and writes go to the matrix
+    public static class Vector {
+	final double[] data;
+	final int offset;
+	final int step;
+	final int length;
+
+	public int length() {
+	    return length;
+	}
+
+	public double get(int i) {
+	    return data[offset + i*step];
+	}
+
+	public void set(int i, double value) {
+	    data[offset + i*step] = value;
+	}
+
+	public void add(int i, double value) {
+	    data[offset + i*step] += value;
+	}
+
+	public double sum() {
+	    if (step == 1)
+		return DoubleArrays.sum(data, offset, length);
+
+	    double sum = 0.0;
+	    for (int i = 0, pos = offset; i < length; i++, pos += step) sum += data[pos];
+	    return sum;
+	}
+
+	// Index of the first maximum, or -1 if empty; same rule as DoubleArrays.argMax
+	// whatever the step
+	public int argMax() {
+	    if (length == 0)
+		return -1;
+	    if (step == 1)
+		return DoubleArrays.argMax(data, offset, length) - offset;
+	    return (DoubleArrays.argMax(data, offset, step, length) - offset) / step;
+	}
+
+	public double max() {
+	    return (length == 0) ? Double.NEGATIVE_INFINITY : get(argMax());
+	}
+
+	public void scale(double factor) {
+	    for (int i = 0, pos = offset; i < length; i++, pos += step) data[pos] *= factor;
+	}
+
+	public double[] toArray() {
+	    double[] ret = new double[length];
+	    for (int i = 0; i < length; i++) ret[i] = get(i);
+	    return ret;
+	}
+
+	Vector(double[] data, int offset, int step, int length) {
+	    this.data = data;
+	    this.offset = offset;
+	    this.step = step;
+	    this.length = length;
+	}
+    }
+
+    // Largest backing array the JVM reliably allocates
+    static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    static int size(int rows, int stride) {
+	long size = (long) rows * stride;
+	if (size > MAX_SIZE)
+	    throw new IllegalArgumentException("Matrix too large: " + rows + " x " + stride);
+	return (int) size;
+    }
+
+    public int rows() {
+	return rows;
+    }
+
+    public int columns() {
+	return columns;
+    }
+
+    public int stride() {
+	return stride;
+    }
+
+    public int offset(int row) {
+	return row*stride;
+    }
+
+    public double get(int row, int column) {
+	return data[row*stride + column];
+    }
+
+    public void set(int row, int column, double value) {
+	data[row*stride + column] = value;
+    }
+
+    public void add(int row, int column, double value) {
+	data[row*stride + column] += value;
+    }
+
+    // Views are only valid until the matrix next grows
+    public Vector row(int row) {
+	return new Vector(data, row*stride, 1, columns);
+    }
+
+    public Vector column(int column) {
+	return new Vector(data, column, stride, rows);
+    }
+
+    public double rowSum(int row) {
+	return DoubleArrays.sum(data, row*stride, columns);
+    }
+
+    // First column holding the row's maximum, or -1 if there are no columns
+    public int rowArgMax(int row) {
+	if (columns == 0)
+	    return -1;
+	return DoubleArrays.argMax(data, row*stride, columns) - row*stride;
+    }
+
+    public double[] rowSums() {
+	double[] sums = new double[rows];
+	for (int row = 0; row < rows; row++) sums[row] = rowSum(row);
+	return sums;
+    }
+
+    // One row-major pass, rather than one strided pass per column
+    public double[] columnSums() {
+	double[] sums = new double[columns];
+	for (int row = 0; row < rows; row++) {
+	    int offset = row*stride;
+	    for (int column = 0; column < columns; column++) sums[column] += data[offset + column];
+	}
+	return sums;
+    }
+
+    public int[] rowArgMaxes() {
+	int[] ret = new int[rows];
+	for (int row = 0; row < rows; row++) ret[row] = rowArgMax(row);
+	return ret;
+    }
+
+    // Row-major pass keeping, per column, the first row holding its maximum by the
+    // same rule as DoubleArrays.argMax
+    public int[] columnArgMaxes() {
+	int[] ret = new int[columns];
+	if (rows == 0) {
+	    Arrays.fill(ret, -1);
+	    return ret;
+	}
+
+	for (int row = 1; row < rows; row++) {
+	    int offset = row*stride;
+	    for (int column = 0; column < columns; column++)
+		if (data[offset + column] > data[ret[column]*stride + column]) ret[column] = row;
+	}
+	return ret;
+    }
+
+    public double sum() {
+	if (stride == columns)
+	    return DoubleArrays.sum(data, 0, rows*columns);
+
+	double sum = 0.0;
+	for (int row = 0; row < rows; row++) sum += rowSum(row);
+	return sum;
+    }
+
+    // Scales each row to sum to 1; rows summing to 0 are left alone
+    public void normalizeRows() {
+	for (int row = 0; row < rows; row++) {
+	    double total = rowSum(row);
+	    if (total != 0.0)
+		DoubleArrays.inPlaceDivide(data, total, row*stride, columns);
+	}
+    }
+
+    // Scales each column to sum to 1; columns summing to 0 are left alone
+    public void normalizeColumns() {
+	double[] scale = columnSums();
+	for (int column = 0; column < columns; column++)
+	    scale[column] = (scale[column] == 0.0) ? 1.0 : 1.0 / scale[column];
+
+	for (int row = 0; row < rows; row++) {
+	    int offset = row*stride;
+	    for (int column = 0; column < columns; column++) data[offset + column] *= scale[column];
+	}
+    }
+
+    // Grows (or shrinks) to rows x columns in place. Existing elements keep their
+    // positions and new ones are 0. Capacity at least doubles when it runs out, so
+    // adding rows or columns one at a time is amortized constant per element.
+    public void resize(int newRows, int newColumns) {
+	if (newRows < 0 || newColumns < 0)
+	    throw new IllegalArgumentException("Matrix dimensions must not be negative: " + newRows + " x " + newColumns);
+
+	if (newColumns > stride) {
+	    // double the stride, unless that alone would make the matrix too large
+	    long doubled = Math.max(newColumns, 2L*stride);
+	    if (newRows > 0) doubled = Math.min(doubled, Math.max(newColumns, MAX_SIZE / newRows));
+	    int newStride = (int) doubled;
+	    double[] newData = new double[size(newRows, newStride)];
+
+	    for (int row = 0; row < Math.min(rows, newRows); row++)
+		System.arraycopy(data, row*stride, newData, row*newStride, columns);
+
+	    data = newData;
+	    stride = newStride;
+	} else {
+	    // clear cells that were dropped and are now coming back
+	    for (int row = 0; row < Math.min(rows, newRows); row++)
+		Arrays.fill(data, row*stride + Math.min(columns, newColumns), row*stride + newColumns, 0.0);
+
+	    int needed = size(newRows, stride);
+	    if (needed > data.length) {
+		int capacity = (int) Math.max(needed, Math.min(2L*data.length, MAX_SIZE));
+		double[] newData = new double[capacity];
+		System.arraycopy(data, 0, newData, 0, Math.min(rows, newRows)*stride);
+		data = newData;
+	    } else if (newRows > rows) {
+		Arrays.fill(data, rows*stride, newRows*stride, 0.0);
+	    }
+	}
+
+	rows = newRows;
+	columns = newColumns;
+    }
+
+    public void ensureRows(int minRows) {
+	if (minRows > rows) resize(minRows, columns);
+    }
+
+    public void ensureColumns(int minColumns) {
+	if (minColumns > columns) resize(rows, minColumns);
+    }
+
+    public double[][] toArray() {
+	double[][] ret = new double[rows][];
+	for (int row = 0; row < rows; row++) {
+	    ret[row] = new double[columns];
+	    System.arraycopy(data, row*stride, ret[row], 0, columns);
+	}
+	return ret;
+    }
+
+    public DoubleMatrix(int rows, int columns) {
+	if (rows < 0 || columns < 0)
+	    throw new IllegalArgumentException("Matrix dimensions must not be negative: " + rows + " x " + columns);
+
+	this.rows = rows;
+	this.columns = columns;
+	this.stride = columns;
+	this.data = new double[size(rows, columns)];
+    }
+
+    public DoubleMatrix(int rows, int columns, double defaultValue) {
+	this(rows, columns);
+	Arrays.fill(data, defaultValue);
+    }
+}
@@ -0,0 +1,249 @@
+package org.mhjones.nlp.math;
+
+import java.util.Arrays;
+
+// Dense int matrix with the same row-major layout as DoubleMatrix: element
+// (row, column) is at data[row*stride + column], with stride >= columns.
+public class IntMatrix {
+    public int[] data;
+    int rows;
+    int columns;
+    int stride;
+
+    // Strided view of one row or column; reads and writes go to the matrix
+    public static class Vector {
+	final int[] data;
+	final int offset;
+	final int step;
+	final int length;
+
+	public int length() {
+	    return length;
+	}
+
+	public int get(int i) {
+	    return data[offset + i*step];
+	}
+
+	public void set(int i, int value) {
+	    data[offset + i*step] = value;
+	}
+
+	public void add(int i, int value) {
+	    data[offset + i*step] += value;
+	}
+
+	public int sum() {
+	    if (step == 1)
+		return IntegerArrays.sum(data, offset, length);
+
+	    int sum = 0;
+	    for (int i = 0, pos = offset; i < length; i++, pos += step) sum += data[pos];
+	    return sum;
+	}
+
+	// Index of the first maximum, or -1 if empty; same rule as IntegerArrays.argMax
+	// whatever the step
+	public int argMax() {
+	    if (length == 0)
+		return -1;
+	    if (step == 1)
+		return IntegerArrays.argMax(data, offset, length) - offset;
+	    return (IntegerArrays.argMax(data, offset, step, length) - offset) / step;
+	}
+
+	public int max() {
+	    return (length == 0) ? Integer.MIN_VALUE : get(argMax());
+	}
+
+	public int[] toArray() {
+	    int[] ret = new int[length];
+	    for (int i = 0; i < length; i++) ret[i] = get(i);
+	    return ret;
+	}
+
+	Vector(int[] data, int offset, int step, int length) {
+	    this.data = data;
+	    this.offset = offset;
+	    this.step = step;
+	    this.length = length;
+	}
+    }
+
+    // Largest backing array the JVM reliably allocates
+    static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    static int size(int rows, int stride) {
+	long size = (long) rows * stride;
+	if (size > MAX_SIZE)
+	    throw new IllegalArgumentException("Matrix too large: " + rows + " x " + stride);
+	return (int) size;
+    }
+
+    public int rows() {
+	return rows;
+    }
+
+    public int columns() {
+	return columns;
+    }
+
+    public int stride() {
+	return stride;
+    }
+
+    public int offset(int row) {
+	return row*stride;
+    }
+
+    public int get(int row, int column) {
+	return data[row*stride + column];
+    }
+
+    public void set(int row, int column, int value) {
+	data[row*stride + column] = value;
+    }
+
+    public void add(int row, int column, int value) {
+	data[row*stride + column] += value;
+    }
+
+    // Views are only valid until the matrix next grows
+    public Vector row(int row) {
+	return new Vector(data, row*stride, 1, columns);
+    }
+
+    public Vector column(int column) {
+	return new Vector(data, column, stride, rows);
+    }
+
+    public int rowSum(int row) {
+	return IntegerArrays.sum(data, row*stride, columns);
+    }
+
+    // First column holding the row's maximum, or -1 if there are no columns
+    public int rowArgMax(int row) {
+	if (columns == 0)
+	    return -1;
+	return IntegerArrays.argMax(data, row*stride, columns) - row*stride;
+    }
+
+    public int[] rowSums() {
+	int[] sums = new int[rows];
+	for (int row = 0; row < rows; row++) sums[row] = rowSum(row);
+	return sums;
+    }
+
+    // One row-major pass, rather than one strided pass per column
+    public int[] columnSums() {
+	int[] sums = new int[columns];
+	for (int row = 0; row < rows; row++) {
+	    int offset = row*stride;
+	    for (int column = 0; column < columns; column++) sums[column] += data[offset + column];
+	}
+	return sums;
+    }
+
+    public int[] rowArgMaxes() {
+	int[] ret = new int[rows];
+	for (int row = 0; row < rows; row++) ret[row] = rowArgMax(row);
+	return ret;
+    }
+
+    // Row-major pass keeping, per column, the first row holding its maximum by the
+    // same rule as IntegerArrays.argMax
+    public int[] columnArgMaxes() {
+	int[] ret = new int[columns];
+	if (rows == 0) {
+	    Arrays.fill(ret, -1);
+	    return ret;
+	}
+
+	for (int row = 1; row < rows; row++) {
+	    int offset = row*stride;
+	    for (int column = 0; column < columns; column++)
+		if (data[offset + column] > data[ret[column]*stride + column]) ret[column] = row;
+	}
+	return ret;
+    }
+
+    public int sum() {
+	if (stride == columns)
+	    return IntegerArrays.sum(data, 0, rows*columns);
+
+	int sum = 0;
+	for (int row = 0; row < rows; row++) sum += rowSum(row);
+	return sum;
+    }
+
+    // Grows (or shrinks) to rows x columns in place. Existing elements keep their
+    // positions and new ones are 0. Capacity at least doubles when it runs out, so
+    // adding rows or columns one at a time is amortized constant per element.
+    public void resize(int newRows, int newColumns) {
+	if (newRows < 0 || newColumns < 0)
+	    throw new IllegalArgumentException("Matrix dimensions must not be negative: " + newRows + " x " + newColumns);
+
+	if (newColumns > stride) {
+	    // double the stride, unless that alone would make the matrix too large
+	    long doubled = Math.max(newColumns, 2L*stride);
+	    if (newRows > 0) doubled = Math.min(doubled, Math.max(newColumns, MAX_SIZE / newRows));
+	    int newStride = (int) doubled;
+	    int[] newData = new int[size(newRows, newStride)];
+
+	    for (int row = 0; row < Math.min(rows, newRows); row++)
+		System.arraycopy(data, row*stride, newData, row*newStride, columns);
+
+	    data = newData;
+	    stride = newStride;
+	} else {
+	    // clear cells that were dropped and are now coming back
+	    for (int row = 0; row < Math.min(rows, newRows); row++)
+		Arrays.fill(data, row*stride + Math.min(columns, newColumns), row*stride + newColumns, 0);
+
+	    int needed = size(newRows, stride);
+	    if (needed > data.length) {
+		int capacity = (int) Math.max(needed, Math.min(2L*data.length, MAX_SIZE));
+		int[] newData = new int[capacity];
+		System.arraycopy(data, 0, newData, 0, Math.min(rows, newRows)*stride);
+		data = newData;
+	    } else if (newRows > rows) {
+		Arrays.fill(data, rows*stride, newRows*stride, 0);
+	    }
+	}
+
+	rows = newRows;
+	columns = newColumns;
+    }
+
+    public void ensureRows(int minRows) {
+	if (minRows > rows) resize(minRows, columns);
+    }
+
+    public void ensureColumns(int minColumns) {
+	if (minColumns > columns) resize(rows, minColumns);
+    }
+
+    public int[][] toArray() {
+	int[][] ret = new int[rows][];
+	for (int row = 0; row < rows; row++) {
+	    ret[row] = new int[columns];
+	    System.arraycopy(data, row*stride, ret[row], 0, columns);
+	}
+	return ret;
+    }
+
+    public IntMatrix(int rows, int columns) {
+	if (rows < 0 || columns < 0)
+	    throw new IllegalArgumentException("Matrix dimensions must not be negative: " + rows + " x " + columns);
+
+	this.rows = rows;
+	this.columns = columns;
+	this.stride = columns;
+	this.data = new int[size(rows, columns)];
+    }
+
+    public IntMatrix(int rows, int columns, int defaultValue) {
+	this(rows, columns);
+	Arrays.fill(data, defaultValue);
+    }
+}
@@ -3,22 +3,27 @@ package org.mhjones.nlp.math;
 import java.util.Arrays;
 
 public class IntegerArrays {
-    public static int sum(int[] x) {
-	int sum = 0;
-
-	for (int i = 0; i < x.length; i++)
-	    sum += x[i];
+    // As in DoubleArrays, reductions use four independent lanes
 
-	return sum;
+    public static int sum(int[] x) {
+	return sum(x, 0, x.length);
     }
 
     public static int sum(int[] x, int start, int length) {
-	int sum = 0;
-
-	for (int i = start; i < length+start; i++)
-	    sum += x[i];
+	int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+	int end = start + length;
+	int i = start;
+
+	for (; i + 3 < end; i += 4) {
+	    s0 += x[i];
+	    s1 += x[i+1];
+	    s2 += x[i+2];
+	    s3 += x[i+3];
+	}
+	for (; i < end; i++)
+	    s0 += x[i];
 
-	return sum;
+	return (s0 + s1) + (s2 + s3);
     }
 
     public static void inPlaceAdd(int[] x, int y) {
@@ -39,7 +44,7 @@ public class IntegerArrays {
     }
 
     public static void inPlaceAdd(int[] x, int[] y, int start, int length) {
-	if (x.length != y.length) throw new IllegalArgumentException();
+	if (x.length < length+start || y.length < length+start) throw new IllegalArgumentException();
 	
 	for (int i = start; i < length+start; i++)
 	    x[i] += y[i];
@@ -56,32 +61,43 @@ public class IntegerArrays {
     }
 
     public static int argMax(int[] x) {
-	int arg = 0;
-	int val = x[0];
-
-	for (int i = 1; i < x.length; i++) {
-	    if (x[i] > val) {
-		arg = i;
-		val = x[i];
-	    }
-	}
-
-	return arg;
+	return argMax(x, 0, x.length);
     }
-    
+
+    // First index of the maximum
     public static int argMax(int[] x, int start, int length) {
-	int arg = start;
-	int val = x[start];
-
-	for (int i = start+1; i < length+start; i++) {
-	    if (x[i] > val) {
-		arg = i;
-		val = x[i];
-	    }
+	int first = x[start];
+	int v0 = first, v1 = first, v2 = first, v3 = first;
+	int a0 = start, a1 = start, a2 = start, a3 = start;
+	int end = start + length;
+	int i = start + 1;
+
+	for (; i + 3 < end; i += 4) {
+	    if (x[i] > v0) { v0 = x[i]; a0 = i; }
+	    if (x[i+1] > v1) { v1 = x[i+1]; a1 = i+1; }
+	    if (x[i+2] > v2) { v2 = x[i+2]; a2 = i+2; }
+	    if (x[i+3] > v3) { v3 = x[i+3]; a3 = i+3; }
 	}
+	for (; i < end; i++)
+	    if (x[i] > v0) { v0 = x[i]; a0 = i; }
+
+	// ties go to the earliest index
+	if (v1 > v0 || (v1 == v0 && a1 < a0)) { v0 = v1; a0 = a1; }
+	if (v3 > v2 || (v3 == v2 && a3 < a2)) { v2 = v3; a2 = a3; }
+	if (v2 > v0 || (v2 == v0 && a2 < a0)) { v0 = v2; a0 = a2; }
 
-	return arg;
+	return a0;
     }
+
+    // argMax over x[start], x[start+step], ... (length elements); returns the
+    // absolute index
+    public static int argMax(int[] x, int start, int step, int length) {
+	int best = start;
+	for (int i = 1, pos = start + step; i < length; i++, pos += step)
+	    if (x[pos] > x[best]) best = pos;
+	return best;
+    }
+
     public static int[] resizeArray(int[] array, int newLength) {
 	int[] newArray = new int[newLength];
 
@@ -23,7 +23,7 @@ public class IntegerArrays2D {
     public static int[][] constantArray(int primarySize, int secondarySize, int defaultValue) {
 	int[][] ret = new int[primarySize][];
 	
-	for (int i = 0; i < secondarySize; i++)
+	for (int i = 0; i < primarySize; i++)
 	    ret[i] = IntegerArrays.constantArray(secondarySize, defaultValue);
 
 	return ret;
@@ -0,0 +1,139 @@
+package org.mhjones.nlp.math;
+
+// Limited-memory BFGS. The last memory steps s = x' - x and gradient changes
+// y = g' - g are kept in flat ring buffers of memory*dimension doubles, allocated
+// once per minimize() call, and the search direction comes from the standard
+// two-loop recursion over them. Steps are chosen by backtracking until the Armijo
+// condition holds. Stops when the value improves by less than tolerance
+// (relative to its magnitude), the gradient vanishes, or after maxIterations.
+public class LBFGSMinimizer {
+    static final double ARMIJO = 1e-4;
+    static final double MIN_STEP = 1e-20;
+
+    final int memory;
+    final double tolerance;
+    final int maxIterations;
+
+    int iterations;
+
+    // Iterations taken by the last minimize()
+    public int iterations() {
+	return iterations;
+    }
+
+    static double dot(double[] x, int xOffset, double[] y, int yOffset, int length) {
+	double sum = 0.0;
+	for (int i = 0; i < length; i++) sum += x[xOffset + i] * y[yOffset + i];
+	return sum;
+    }
+
+    public double[] minimize(DifferentiableFunction function, double[] initial) {
+	int dimension = function.dimension();
+	if (initial.length != dimension)
+	    throw new IllegalArgumentException("Initial point has dimension " + initial.length + ", function has " + dimension);
+
+	double[] s = new double[memory * dimension];
+	double[] y = new double[memory * dimension];
+	double[] rho = new double[memory];
+	double[] alpha = new double[memory];
+	int head = 0;  // next slot to write
+	int stored = 0;
+
+	double[] x = initial.clone();
+	double[] newX = new double[dimension];
+	double[] gradient = function.derivativeAt(x).clone();
+	double[] newGradient = new double[dimension];
+	double[] direction = new double[dimension];
+	double value = function.valueAt(x);
+
+	for (iterations = 0; iterations < maxIterations; iterations++) {
+	    double gradientNorm = Math.sqrt(dot(gradient, 0, gradient, 0, dimension));
+	    if (gradientNorm == 0.0)
+		break;
+
+	    // two-loop recursion: direction = -H * gradient
+	    for (int i = 0; i < dimension; i++) direction[i] = -gradient[i];
+	    for (int k = 0; k < stored; k++) {
+		int slot = (head - 1 - k + memory) % memory;
+		alpha[slot] = rho[slot] * dot(s, slot*dimension, direction, 0, dimension);
+		for (int i = 0; i < dimension; i++) direction[i] -= alpha[slot] * y[slot*dimension + i];
+	    }
+	    if (stored > 0) {
+		int newest = (head - 1 + memory) % memory;
+		double scale = 1.0 / (rho[newest] * dot(y, newest*dimension, y, newest*dimension, dimension));
+		for (int i = 0; i < dimension; i++) direction[i] *= scale;
+	    }
+	    for (int k = stored - 1; k >= 0; k--) {
+		int slot = (head - 1 - k + memory) % memory;
+		double beta = rho[slot] * dot(y, slot*dimension, direction, 0, dimension);
+		for (int i = 0; i < dimension; i++) direction[i] += (alpha[slot] - beta) * s[slot*dimension + i];
+	    }
+
+	    double slope = dot(direction, 0, gradient, 0, dimension);
+	    if (!(slope < 0.0)) {
+		// not a descent direction: forget the history and follow the gradient
+		stored = 0;
+		for (int i = 0; i < dimension; i++) direction[i] = -gradient[i];
+		slope = -gradientNorm * gradientNorm;
+	    }
+
+	    // backtracking line search; the first step is scaled to the gradient
+	    // until there is curvature information
+	    double step = (stored > 0) ? 1.0 : 1.0 / gradientNorm;
+	    double newValue;
+	    while (true) {
+		for (int i = 0; i < dimension; i++) newX[i] = x[i] + step * direction[i];
+		newValue = function.valueAt(newX);
+		if (newValue <= value + ARMIJO * step * slope)
+		    break;
+		step *= 0.5;
+		if (step < MIN_STEP)
+		    return x;
+	    }
+
+	    // the value was just computed here, so the gradient comes from the cache
+	    System.arraycopy(function.derivativeAt(newX), 0, newGradient, 0, dimension);
+
+	    // keep the pair only with positive curvature; slot head may still hold the
+	    // oldest pair in use, so it is written only once the pair is accepted
+	    double sy = 0.0;
+	    for (int i = 0; i < dimension; i++) sy += (newX[i] - x[i]) * (newGradient[i] - gradient[i]);
+	    if (sy > 0.0) {
+		int offset = head * dimension;
+		for (int i = 0; i < dimension; i++) {
+		    s[offset + i] = newX[i] - x[i];
+		    y[offset + i] = newGradient[i] - gradient[i];
+		}
+		rho[head] = 1.0 / sy;
+		head = (head + 1) % memory;
+		stored = Math.min(stored + 1, memory);
+	    }
+
+	    boolean converged = Math.abs(value - newValue) <= tolerance * Math.max(1.0, Math.max(Math.abs(value), Math.abs(newValue)));
+
+	    double[] swap = x; x = newX; newX = swap;
+	    swap = gradient; gradient = newGradient; newGradient = swap;
+	    value = newValue;
+
+	    if (converged) {
+		iterations++;
+		break;
+	    }
+	}
+
+	return x;
+    }
+
+    public LBFGSMinimizer(int memory, double tolerance, int maxIterations) {
+	if (memory < 1)
+	    throw new IllegalArgumentException("Memory must be at least 1: " + memory);
+
+	this.memory = memory;
+	this.tolerance = tolerance;
+	this.maxIterations = maxIterations;
+    }
+
+    public LBFGSMinimizer() {
+	this(10, 1e-10, 1000);
+    }
+}
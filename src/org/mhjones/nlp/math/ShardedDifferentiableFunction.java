@@ -0,0 +1,77 @@
+package org.mhjones.nlp.math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// Objective that is a sum over data, e.g. a log likelihood over training examples.
+// The data are split into a fixed number of contiguous shards evaluated in
+// parallel on a fork-join pool, each into its own preallocated gradient buffer;
+// values and gradients are then added up in shard order. The shard count, not the
+// number of threads, decides the order of the sums, so results are the same
+// whatever pool runs them.
+public abstract class ShardedDifferentiableFunction extends CachingDifferentiableFunction {
+    final int dataSize;
+    final int shards;
+    final double[][] shardGradients;
+    final ForkJoinPool pool;
+
+    // Adds the gradient of data[start, end) at x to gradient and returns their value
+    protected abstract double calculate(double[] x, int start, int end, double[] gradient);
+
+    protected double calculate(final double[] x, double[] gradient) {
+	List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(shards);
+
+	for (int shard = 0; shard < shards; shard++) {
+	    final int start = (int) ((long) shard * dataSize / shards);
+	    final int end = (int) ((long) (shard + 1) * dataSize / shards);
+	    final double[] shardGradient = shardGradients[shard];
+
+	    tasks.add(new Callable<Double>() {
+		public Double call() {
+		    Arrays.fill(shardGradient, 0.0);
+		    return calculate(x, start, end, shardGradient);
+		}
+	    });
+	}
+
+	double value = 0.0;
+	try {
+	    List<Future<Double>> results = pool.invokeAll(tasks);
+
+	    for (int shard = 0; shard < shards; shard++) {
+		value += results.get(shard).get();
+		DoubleArrays.inPlaceAdd(gradient, shardGradients[shard]);
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IllegalStateException("Interrupted while evaluating shards", e);
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+	    if (e.getCause() instanceof Error) throw (Error) e.getCause();
+	    throw new RuntimeException(e.getCause());
+	}
+
+	return value;
+    }
+
+    public ShardedDifferentiableFunction(int dimension, int dataSize, int shards, ForkJoinPool pool) {
+	super(dimension);
+
+	if (shards < 1)
+	    throw new IllegalArgumentException("Need at least one shard: " + shards);
+
+	this.dataSize = dataSize;
+	this.shards = shards;
+	this.pool = pool;
+	this.shardGradients = new double[shards][dimension];
+    }
+
+    public ShardedDifferentiableFunction(int dimension, int dataSize, int shards) {
+	this(dimension, dataSize, shards, ForkJoinPool.commonPool());
+    }
+}
@@ -0,0 +1,531 @@
+package org.mhjones.nlp.tests;
+
+import org.junit.Test;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.mhjones.nlp.math.CounterMath;
+import org.mhjones.nlp.util.CompactCounterMap;
+import org.mhjones.nlp.util.CountMinSketch;
+import org.mhjones.nlp.util.Counter;
+import org.mhjones.nlp.util.CounterMap;
+import org.mhjones.nlp.util.Encoding;
+import org.mhjones.nlp.util.IntegerMap;
+import org.mhjones.nlp.util.MappedCounterMap;
+import org.mhjones.nlp.util.ModelFile;
+import org.mhjones.nlp.util.OffHeapCounter;
+import org.mhjones.nlp.util.OffHeapCounterMap;
+import org.mhjones.nlp.util.Pair;
+import org.mhjones.nlp.util.SparseCounter;
+
+public class CounterMapTest extends TestCase {
+    @Test public void testRepeatedLargeIds() {
+        CounterMap<Integer, Integer> counts = new CounterMap<Integer, Integer>(4, 4);
+
+        for (int i = 0; i < 1000; i++) {
+            counts.incrementCount(i, 1000 + i);
+            counts.incrementCount(i, 1000 + i, 2.0);
+            counts.incrementCount(0, 5000 + i);
+        }
+
+        for (int i = 0; i < 1000; i++)
+            assertEquals(3.0, counts.getCount(i, 1000 + i), 0.0);
+
+        // every increment of an existing pair must reuse its slot
+        assertEquals(1001, counts.secondaryRevIdx[0].size());
+        assertEquals(1, counts.secondaryRevIdx[999].size());
+        assertEquals(1.0, counts.getCount(0, 5999), 0.0);
+        assertEquals(0.0, counts.getCount(1, 5999), 0.0);
+    }
+
+    @Test public void testNormalizeAndArgMax() {
+        CounterMap<String, String> counts = new CounterMap<String, String>(new Encoding<String>(), new Encoding<String>());
+
+        for (int i = 0; i < 300; i++)
+            counts.incrementCount("row", "col-" + i, (i == 200) ? 4.0 : 1.0);
+        counts.normalize();
+
+        assertEquals(4.0 / 303.0, counts.getCount("row", "col-200"), 1e-12);
+        assertEquals(1.0 / 303.0, counts.getCount("row", "col-201"), 1e-12);
+        assertEquals("col-200", counts.argMax("row"));
+    }
+
+    @Test public void testCompact() {
+        CounterMap<Integer, Integer> counts = new CounterMap<Integer, Integer>(2, 2);
+
+        for (int i = 0; i < 100; i++)
+            for (int j = 0; j < i; j += 1 + (i % 4))
+                counts.incrementCount(i, 1000 - 7*j, j + 1);
+        counts.getCount(150, 3); // a primary without a row
+
+        CompactCounterMap<Integer, Integer> compact = counts.compact();
+
+        assertEquals(counts.size(), compact.rows());
+        for (int row = 0; row < compact.rows(); row++)
+            for (int pos = compact.rowOffsets[row] + 1; pos < compact.rowOffsets[row+1]; pos++)
+                assertTrue(compact.columns[pos-1] < compact.columns[pos]);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(counts.argMax(i), compact.argMax(i));
+            for (int j = 0; j < 100; j++)
+                assertEquals(counts.getCount(i, 1000 - 7*j), compact.getCount(i, 1000 - 7*j), 0.0);
+        }
+        assertEquals(0.0, compact.getCount(150, 3), 0.0);
+    }
+
+    @Test public void testIntegerMap() {
+        IntegerMap map = new IntegerMap();
+
+        for (int i = 0; i < 10000; i += 3)
+            map.put(i * 131, i);
+
+        assertEquals(3334, map.size());
+        for (int i = 0; i < 10000; i++) {
+            if (i % 3 == 0) assertEquals(i, map.get(i * 131));
+            else assertEquals(IntegerMap.MISSING, map.get(i * 131));
+        }
+
+        map.put(131 * 3, 7);
+        assertEquals(7, map.get(131 * 3));
+        assertEquals(3334, map.size());
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(0));
+    }
+
+    @Test public void testModelFileRoundTrip() throws IOException {
+        CounterMap<String, String> counts = new CounterMap<String, String>(new Encoding<String>(), new Encoding<String>());
+        Counter<String> totals = new Counter<String>(counts.secondaryEncoding);
+
+        for (int i = 0; i < 200; i++)
+            for (int j = i % 7; j < 50; j += 3) {
+                counts.incrementCount("row-" + i, "col-" + (49 - j), i + j);
+                totals.incrementCount("col-" + (49 - j), i + j);
+            }
+
+        File file = File.createTempFile("countermap", ".model");
+        file.deleteOnExit();
+
+        ModelFile.Writer writer = new ModelFile.Writer(file.getPath());
+        writer.writeStringEncoding(counts.primaryEncoding);
+        writer.writeStringEncoding(counts.secondaryEncoding);
+        writer.writeCounterMap(counts);
+        writer.writeCounter(totals);
+        writer.close();
+
+        ModelFile.Reader reader = new ModelFile.Reader(file.getPath());
+        Encoding<String> rows = reader.readStringEncoding();
+        Encoding<String> columns = reader.readStringEncoding();
+        MappedCounterMap<String, String> mapped = reader.readCounterMap(rows, columns);
+        Counter<String> mappedTotals = reader.readCounter(columns);
+        reader.close();
+
+        assertEquals(200, mapped.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(counts.argMax("row-" + i), mapped.argMax("row-" + i));
+            for (int j = 0; j < 50; j++)
+                assertEquals(counts.getCount("row-" + i, "col-" + j), mapped.getCount("row-" + i, "col-" + j), 0.0);
+        }
+        for (int j = 0; j < 50; j++)
+            assertEquals(totals.getCount("col-" + j), mappedTotals.getCount("col-" + j), 0.0);
+
+        assertEquals(0.0, mapped.getCount("row-1", "unseen"), 0.0);
+        assertNull(mapped.argMax("unseen"));
+    }
+
+    @Test public void testOffHeapMatchesHeap() {
+        java.util.Random random = new java.util.Random(7);
+        CounterMap<String, String> heap = new CounterMap<String, String>();
+        OffHeapCounterMap<String, String> offHeap = new OffHeapCounterMap<String, String>();
+        Counter<String> heapCounter = new Counter<String>();
+        OffHeapCounter<String> offHeapCounter = new OffHeapCounter<String>();
+
+        // rows of very different widths, so several rows grow and free blocks
+        for (int i = 0; i < 20000; i++) {
+            String row = "row-" + random.nextInt(50);
+            String column = "column-" + random.nextInt(row.hashCode() % 2 == 0 ? 500 : 5);
+            heap.incrementCount(row, column);
+            offHeap.incrementCount(row, column);
+            heapCounter.incrementCount(column);
+            offHeapCounter.incrementCount(column);
+        }
+
+        for (String row : heap.keySet()) {
+            assertEquals(heap.argMax(row), offHeap.argMax(row));
+            for (String column : heap.secondaryEncoding.keySet())
+                assertEquals(heap.getCount(row, column), offHeap.getCount(row, column), 0.0);
+        }
+        for (String column : heapCounter.keySet())
+            assertEquals(heapCounter.getCount(column), offHeapCounter.getCount(column), 0.0);
+
+        heap.normalize();
+        offHeap.normalize();
+        offHeapCounter.normalize();
+        heapCounter.normalize();
+
+        for (String row : heap.keySet())
+            for (String column : heap.secondaryEncoding.keySet())
+                assertEquals(heap.getCount(row, column), offHeap.getCount(row, column), 1e-12);
+        for (String column : heapCounter.keySet())
+            assertEquals(heapCounter.getCount(column), offHeapCounter.getCount(column), 1e-12);
+
+        assertEquals(0.0, offHeap.getCount("row-1", "unseen"), 0.0);
+        assertNull(offHeap.argMax("unseen"));
+        assertTrue(offHeap.offHeapBytes() > 0);
+
+        offHeap.close();
+        offHeapCounter.close();
+        offHeap.close();
+
+        try {
+            offHeap.getCount("row-1", "column-1");
+            fail("closed OffHeapCounterMap was readable");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test public void testCountMinSketch() {
+        java.util.Random random = new java.util.Random(3);
+        Encoding<String> encoding = new Encoding<String>();
+        Counter<String> exact = new Counter<String>(encoding);
+        CountMinSketch<String> whole = new CountMinSketch<String>(0.001, 0.01, 5, false, encoding);
+        CountMinSketch<String> conservative = new CountMinSketch<String>(0.001, 0.01, 5, true, encoding);
+        CountMinSketch<String> first = new CountMinSketch<String>(0.001, 0.01, 5);
+        CountMinSketch<String> second = new CountMinSketch<String>(0.001, 0.01, 5);
+
+        // skewed: key-0 .. key-4 are far more frequent than the long tail
+        for (int i = 0; i < 50000; i++) {
+            String key = "key-" + (random.nextInt(4) == 0 ? random.nextInt(5) : random.nextInt(20000));
+            exact.incrementCount(key);
+            whole.incrementCount(key);
+            conservative.incrementCount(key);
+            if (i % 2 == 0) first.incrementCount(key);
+            else second.incrementCount(key);
+        }
+
+        first.incrementAll(second);
+
+        int outsideBound = 0;
+        for (String key : exact.keySet()) {
+            double count = exact.getCount(key);
+            assertTrue(whole.getCount(key) >= count);
+            assertTrue(conservative.getCount(key) >= count);
+            assertTrue(conservative.getCount(key) <= whole.getCount(key));
+            assertEquals(whole.getCount(key), first.getCount(key), 0.0);
+            assertEquals(whole.getCount(key), whole.getEncodedCount(encoding.lookup(key)), 0.0);
+            if (whole.getCount(key) > count + 0.001 * whole.totalCount()) outsideBound++;
+        }
+        assertTrue(outsideBound <= 0.01 * exact.size());
+        assertEquals(50000.0, first.totalCount(), 0.0);
+
+        java.util.Set<String> top = new java.util.HashSet<String>();
+        for (Pair<String, Double> candidate : first.topK()) top.add(candidate.getFirst());
+        for (int i = 0; i < 5; i++) assertTrue(top.contains("key-" + i));
+
+        assertEquals(5, whole.heavyHitters(0.01).size());
+        assertTrue(whole.topK().get(0).getSecond() >= whole.topK().get(4).getSecond());
+
+        try {
+            whole.incrementAll(new CountMinSketch<String>(0.01, 0.01));
+            fail("merged sketches of different widths");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test public void testLazyProbabilities() {
+        CounterMap<String, String> counts = new CounterMap<String, String>();
+        counts.incrementCount("row", "a", 3.0);
+        counts.incrementCount("row", "b");
+
+        assertEquals(4.0, counts.getRowTotal("row"), 0.0);
+        assertEquals(0.75, counts.getProbability("row", "a"), 1e-12);
+        assertEquals(Math.log(0.25), counts.getLogProbability("row", "b"), 1e-12);
+        assertEquals(0.0, counts.getProbability("unseen", "a"), 0.0);
+
+        // counts stay raw, so more data just updates the totals
+        counts.incrementCount("row", "b", 4.0);
+        assertEquals(3.0, counts.getCount("row", "a"), 0.0);
+        assertEquals(0.375, counts.getProbability("row", "a"), 1e-12);
+
+        Counter<String> counter = new Counter<String>();
+        counter.incrementCount("a", 1.0);
+        counter.incrementCount("b", 3.0);
+        assertEquals(0.25, counter.getProbability("a"), 1e-12);
+        assertEquals(1.0, counter.getCount("a"), 0.0);
+
+        counts.normalize();
+        assertEquals(1.0, counts.getRowTotal("row"), 1e-12);
+        assertEquals(0.375, counts.getProbability("row", "a"), 1e-12);
+    }
+
+    // Reference value computed through keys rather than raw arrays
+    private double decodedKL(Counter<String> p, Counter<String> q) {
+        double pTotal = 0.0, qTotal = 0.0;
+        for (String key : p.keySet()) {
+            pTotal += p.getCount(key);
+            qTotal += q.getCount(key);
+        }
+
+        double kl = 0.0;
+        for (String key : p.keySet()) {
+            double pi = p.getCount(key) / pTotal;
+            if (pi > 0.0) kl += pi * Math.log(pi / (q.getCount(key) / qTotal));
+        }
+        return kl;
+    }
+
+    @Test public void testCounterMath() {
+        Encoding<String> words = new Encoding<String>();
+        Counter<String> p = new Counter<String>(words);
+        Counter<String> q = new Counter<String>(words);
+        String[] keys = { "a", "b", "c", "d", "e" };
+
+        CounterMap<String, String> rows = new CounterMap<String, String>(new Encoding<String>(), words);
+        CounterMap<String, String> others = new CounterMap<String, String>(new Encoding<String>(), words);
+
+        for (int i = 0; i < keys.length; i++) {
+            p.incrementCount(keys[i], i + 1);
+            q.incrementCount(keys[keys.length - 1 - i], 2 * i + 1);
+            // rows hold the same counts, inserted in different orders
+            rows.incrementCount("p", keys[i], i + 1);
+            others.incrementCount("q", keys[i], 2 * (keys.length - 1 - i) + 1);
+        }
+
+        double dot = 0.0;
+        for (String key : keys) dot += p.getCount(key) * q.getCount(key);
+
+        assertEquals(dot, CounterMath.dot(p, q), 1e-12);
+        assertEquals(decodedKL(p, q), CounterMath.klDivergence(p, q), 1e-12);
+        assertEquals(0.0, CounterMath.klDivergence(p, p), 1e-12);
+        assertEquals(CounterMath.jsDivergence(p, q), CounterMath.jsDivergence(q, p), 1e-12);
+        assertEquals(1.0, CounterMath.cosine(p, p), 1e-12);
+
+        // sparse rows agree with the dense counters, through both joins
+        CompactCounterMap<String, String> compactRows = rows.compact();
+        CompactCounterMap<String, String> compactOthers = others.compact();
+        assertEquals(dot, CounterMath.dot(rows, 0, others, 0), 1e-12);
+        assertEquals(dot, CounterMath.dot(compactRows, 0, compactOthers, 0), 1e-12);
+        assertEquals(dot, CounterMath.dot(rows, 0, q), 1e-12);
+        assertEquals(CounterMath.klDivergence(p, q), CounterMath.klDivergence(rows, 0, others, 0), 1e-12);
+        assertEquals(CounterMath.klDivergence(p, q), CounterMath.klDivergence(compactRows, 0, compactOthers, 0), 1e-12);
+        assertEquals(CounterMath.jsDivergence(p, q), CounterMath.jsDivergence(rows, 0, others, 0), 1e-12);
+        assertEquals(CounterMath.jsDivergence(p, q), CounterMath.jsDivergence(compactRows, 0, compactOthers, 0), 1e-12);
+        assertEquals(CounterMath.cosine(p, q), CounterMath.cosine(compactRows, 0, compactOthers, 0), 1e-12);
+
+        // disjoint support: KL is infinite, JS reaches log 2
+        others.incrementCount("r", "f", 1.0);
+        assertEquals(Double.POSITIVE_INFINITY, CounterMath.klDivergence(rows, 0, others, 1));
+        assertEquals(Math.log(2), CounterMath.jsDivergence(rows, 0, others, 1), 1e-12);
+        assertEquals(Math.log(2), CounterMath.jsDivergence(others, 1, rows, 0), 1e-12);
+
+        // smoothing and log normalization read the counts without changing them
+        double[] smoothed = CounterMath.smooth(p, 1.0);
+        assertEquals(6, smoothed.length);
+        assertEquals(2.0 / 21.0, smoothed[words.lookup("a")], 1e-12);
+        assertEquals(1.0 / 21.0, smoothed[words.lookup("f")], 1e-12);
+        double[] mixed = CounterMath.interpolate(p, q, 0.5);
+        assertEquals(0.5 * 1.0 / 15.0 + 0.5 * 9.0 / 25.0, mixed[words.lookup("a")], 1e-12);
+        double[] logs = CounterMath.logDistribution(p);
+        assertEquals(p.getLogProbability("c"), logs[words.lookup("c")], 1e-12);
+        assertEquals(3.0, p.getCount("c"));
+
+        CounterMath.logNormalize(rows, 0);
+        assertEquals(Math.log(3.0 / 15.0), rows.getCount("p", "c"), 1e-12);
+        assertEquals(1.0, rows.getRowTotal("p"), 0.0);
+        assertEquals(3.0 / 15.0, rows.getProbability("p", "c"), 1e-12);
+
+        try {
+            CounterMath.dot(p, new Counter<String>(new Encoding<String>()));
+            fail("Counters over different encodings must not be combined");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test public void testSparseCounter() {
+        Encoding<Integer> vocabulary = new Encoding<Integer>();
+        for (int i = 0; i < 10000; i++) vocabulary.encode(i);
+
+        SparseCounter<Integer> sparse = new SparseCounter<Integer>(vocabulary);
+        Counter<Integer> dense = new Counter<Integer>(vocabulary);
+        int[] keys = { 9000, 17, 4242, 17, 3, 9999, 0 };
+        for (int i = 0; i < keys.length; i++) {
+            sparse.incrementCount(keys[i], i + 1);
+            dense.incrementCount(keys[i], i + 1);
+        }
+
+        assertFalse(sparse.isDense());
+        for (int key : keys) assertEquals(dense.getCount(key), sparse.getCount(key));
+        assertEquals(0.0, sparse.getCount(5));
+        assertEquals(0.0, sparse.getCount(-5));
+        assertEquals(dense.getProbability(17), sparse.getProbability(17), 1e-12);
+        assertEquals(Integer.valueOf(0), sparse.argMax());
+
+        // iteration visits only the stored keys, in id order
+        int visited = 0;
+        int previous = -1;
+        for (int k = sparse.nextNonZero(0); k != Encoding.UNKNOWN; k = sparse.nextNonZero(k+1)) {
+            assertTrue(k > previous);
+            assertEquals(dense.values[k], sparse.getEncodedCount(k));
+            previous = k;
+            visited++;
+        }
+        assertEquals(6, visited);
+
+        // filling a quarter of the vocabulary switches to the dense layout
+        for (int i = 0; i < 3000; i++) {
+            sparse.incrementCount(i);
+            dense.incrementCount(i);
+        }
+        assertTrue(sparse.isDense());
+        for (int i = 0; i < 10000; i += 7) assertEquals(dense.getCount(i), sparse.getCount(i));
+        assertEquals(dense.getProbability(9999), sparse.getProbability(9999), 1e-12);
+
+        sparse.normalize();
+        dense.normalize();
+        assertEquals(dense.getCount(17), sparse.getCount(17), 1e-12);
+        assertEquals(1.0, CounterMath.dot(sparse.toCounter(), dense) / CounterMath.dot(dense, dense), 1e-12);
+
+        // normalizing a counter whose counts cancel out leaves it at 0 rather than NaN
+        SparseCounter<Integer> empty = new SparseCounter<Integer>(vocabulary);
+        empty.incrementCount(17, 1.0);
+        empty.incrementCount(17, -1.0);
+        empty.normalize();
+        assertEquals(0.0, empty.getCount(17));
+        assertEquals(0.0, empty.getProbability(17));
+        assertEquals(Encoding.UNKNOWN, empty.nextNonZero(0));
+
+        // a dense counter over a small encoding goes back to sparse as it grows
+        Encoding<Integer> growing = new Encoding<Integer>();
+        SparseCounter<Integer> counter = new SparseCounter<Integer>(growing);
+        counter.incrementCount(0);
+        assertTrue(counter.isDense());
+        for (int i = 1; i < 1000; i++) growing.encode(i);
+        counter.incrementCount(999, 2.0);
+        assertFalse(counter.isDense());
+        assertEquals(1.0, counter.getCount(0));
+        assertEquals(2.0, counter.getCount(999));
+
+        // rows copy only their stored entries
+        CounterMap<String, Integer> rows = new CounterMap<String, Integer>(new Encoding<String>(), vocabulary);
+        rows.incrementCount("row", 5000, 2.0);
+        rows.incrementCount("row", 12, 1.0);
+        SparseCounter<Integer> row = rows.getSparseCounter("row");
+        assertFalse(row.isDense());
+        assertEquals(2.0, row.getCount(5000));
+        assertEquals(Integer.valueOf(12), Integer.valueOf(row.nextNonZero(0)));
+        assertEquals(Encoding.UNKNOWN, rows.getSparseCounter("missing").nextNonZero(0));
+
+        // copying unsorted pairs matches counting them one at a time, in either layout
+        Random random = new Random(7);
+        for (int n : new int[] { 50, 5000 }) {
+            int[] index = new int[n];
+            double[] values = new double[n];
+            SparseCounter<Integer> counted = new SparseCounter<Integer>(vocabulary);
+            for (int i = 0; i < n; i++) {
+                index[i] = random.nextInt(10000);
+                values[i] = random.nextInt(10) + 0.5;
+                counted.incrementEncodedCount(index[i], values[i]);
+            }
+
+            SparseCounter<Integer> copied = new SparseCounter<Integer>(values, index, n, vocabulary);
+            assertEquals(counted.isDense(), copied.isDense());
+            assertEquals(counted.getProbability(index[0]), copied.getProbability(index[0]), 1e-12);
+            for (int i = 0; i < 10000; i++) assertEquals(counted.getEncodedCount(i), copied.getEncodedCount(i), 1e-9);
+        }
+    }
+
+    private CounterMap<Integer, Integer> randomCounts(int rows, long seed) {
+        Random random = new Random(seed);
+        CounterMap<Integer, Integer> counts = new CounterMap<Integer, Integer>(16, 16);
+
+        for (int i = 0; i < rows * 8; i++)
+            counts.incrementCount(random.nextInt(rows), random.nextInt(500), random.nextInt(10) + 0.5);
+
+        return counts;
+    }
+
+    private void assertSameRows(CounterMap<Integer, Integer> expected, CounterMap<Integer, Integer> actual) {
+        assertEquals(expected.size(), actual.size());
+
+        for (int primary = 0; primary < expected.size(); primary++) {
+            int used = expected.secondaryRevIdx[primary].size();
+            assertEquals(used, actual.secondaryRevIdx[primary].size());
+            assertTrue(Arrays.equals(Arrays.copyOf(expected.values[primary], used), Arrays.copyOf(actual.values[primary], used)));
+            assertTrue(Arrays.equals(Arrays.copyOf(expected.secondaryIdx[primary], used), Arrays.copyOf(actual.secondaryIdx[primary], used)));
+            assertEquals(expected.rowTotals[primary], actual.rowTotals[primary]);
+        }
+    }
+
+    @Test public void testParallelRowTransforms() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            CounterMap<Integer, Integer> sequential = randomCounts(5000, 5);
+            CounterMap<Integer, Integer> parallel = randomCounts(5000, 5);
+
+            sequential.prune(3.0);
+            parallel.prune(3.0, pool);
+            assertSameRows(sequential, parallel);
+
+            sequential.smooth(0.5);
+            parallel.smooth(0.5, pool);
+            assertSameRows(sequential, parallel);
+
+            sequential.normalize();
+            parallel.normalize(pool);
+            assertSameRows(sequential, parallel);
+
+            CounterMap<Integer, Integer> logs = randomCounts(5000, 5);
+            CounterMap<Integer, Integer> parallelLogs = randomCounts(5000, 5);
+            logs.logNormalize();
+            parallelLogs.logNormalize(pool);
+            assertSameRows(logs, parallelLogs);
+        } finally {
+            pool.shutdown();
+        }
+
+        CounterMap<String, String> counts = new CounterMap<String, String>();
+        counts.incrementCount("row", "a", 1.0);
+        counts.incrementCount("row", "b", 5.0);
+        counts.incrementCount("row", "c", 2.0);
+        counts.incrementCount("other", "a", 3.0);
+
+        counts.prune(2.0);
+        assertEquals(0.0, counts.getCount("row", "a"));
+        assertEquals(5.0, counts.getCount("row", "b"));
+        assertEquals(2.0, counts.getCount("row", "c"));
+        assertEquals(7.0, counts.getRowTotal("row"));
+        assertEquals("b", counts.argMax("row"));
+
+        // pruned keys can be counted again
+        counts.incrementCount("row", "a", 4.0);
+        assertEquals(4.0, counts.getCount("row", "a"));
+
+        counts.smooth(1.0);
+        counts.normalize();
+        assertEquals(6.0 / 14.0, counts.getCount("row", "b"), 1e-12);
+        assertEquals(1.0, counts.getRowTotal("row"), 1e-12);
+
+        // a value written directly (here b) leaves rowTotals stale; normalizing sums the row
+        counts.values[0][0] += 1.0;
+        counts.normalize();
+        assertEquals(1.0, counts.getRowTotal("row"), 1e-12);
+        assertEquals(10.0 / 14.0, counts.getCount("row", "b"), 1e-12);
+
+        // log rows are marked, and their total is their mass rather than a sum of logs
+        counts.logNormalize();
+        assertEquals(Math.log(10.0 / 14.0), counts.getCount("row", "b"), 1e-12);
+        assertEquals(0.0, counts.getCount("other", "a"), 1e-12);
+        assertTrue(counts.logRows[0]);
+        assertEquals(1.0, counts.getRowTotal("row"), 0.0);
+        assertEquals(10.0 / 14.0, counts.getProbability("row", "b"), 1e-12);
+        assertEquals(Math.log(10.0 / 14.0), counts.getLogProbability("row", "b"), 1e-12);
+        assertEquals(Double.NEGATIVE_INFINITY, counts.getLogProbability("row", "unseen"));
+        assertEquals(0.0, counts.getProbability("row", "unseen"));
+    }
+}
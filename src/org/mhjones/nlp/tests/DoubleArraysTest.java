@@ -0,0 +1,232 @@
+package org.mhjones.nlp.tests;
+
+import org.junit.Test;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+import org.mhjones.nlp.math.DoubleArrays;
+import org.mhjones.nlp.math.DoubleArrays2D;
+import org.mhjones.nlp.math.DoubleMatrix;
+import org.mhjones.nlp.math.IntegerArrays;
+import org.mhjones.nlp.math.IntegerArrays2D;
+import org.mhjones.nlp.math.IntMatrix;
+
+public class DoubleArraysTest extends TestCase {
+    private Random random = new Random(7);
+
+    private double[] randomArray(int length) {
+        double[] x = new double[length];
+        for (int i = 0; i < length; i++)
+            x[i] = random.nextDouble() - 0.5;
+        return x;
+    }
+
+    // every start and length that straddles the unrolled loop and its tail
+    @Test public void testRangedReductions() {
+        for (int length = 1; length < 23; length++)
+            for (int start = 0; start < 5; start++) {
+                double[] x = randomArray(start + length + 3);
+
+                double sum = 0.0;
+                int arg = start;
+                for (int i = start; i < start + length; i++) {
+                    sum += x[i];
+                    if (x[i] > x[arg]) arg = i;
+                }
+
+                assertEquals(sum, DoubleArrays.sum(x, start, length), 1e-12);
+                assertEquals(arg, DoubleArrays.argMax(x, start, length));
+                assertEquals(x[arg], DoubleArrays.max(x, start, length), 0.0);
+            }
+
+        assertEquals(0.0, DoubleArrays.sum(new double[3], 1, 0), 0.0);
+    }
+
+    @Test public void testRangedInPlace() {
+        for (int length = 0; length < 19; length++)
+            for (int start = 0; start < 4; start++) {
+                double[] x = randomArray(start + length + 2);
+                double[] y = randomArray(x.length);
+                double[] expected = x.clone();
+
+                for (int i = start; i < start + length; i++)
+                    expected[i] = ((x[i] + y[i]) * y[i] + 2.0) / 3.0;
+
+                DoubleArrays.inPlaceAdd(x, y, start, length);
+                DoubleArrays.inPlaceMultiply(x, y, start, length);
+                DoubleArrays.inPlaceAdd(x, 2.0, start, length);
+                DoubleArrays.inPlaceDivide(x, 3.0, start, length);
+
+                // elements outside the range are untouched
+                for (int i = 0; i < x.length; i++)
+                    assertEquals(expected[i], x[i], 1e-12);
+            }
+    }
+
+    @Test public void testArgMaxTiesAndSpecialValues() {
+        assertEquals(2, DoubleArrays.argMax(new double[] { 1, 2, 5, 0, 5, 5, 3, 5, 1 }));
+        assertEquals(5, DoubleArrays.argMax(new double[] { 1, 2, 5, 0, 5, 7, 3, 7, 7 }));
+        assertEquals(1, DoubleArrays.argMax(new double[] { 0, 5, 5, 5, 5, 5, 5, 5, 5 }, 1, 8));
+
+        double n = Double.NEGATIVE_INFINITY;
+        assertEquals(0, DoubleArrays.argMax(new double[] { n, n, n, n, n, n }));
+        assertEquals(4, DoubleArrays.argMax(new double[] { n, Double.NaN, n, n, 1, n }));
+        assertEquals(0, DoubleArrays.argMax(new double[] { Double.NaN, 1, 2, 3, 4, 5 }));
+        assertEquals(3.0, DoubleArrays.max(new double[] { 1, Double.NaN, 2, 3, n, 0 }), 0.0);
+    }
+
+    @Test public void testLogSumExp() {
+        double[] x = { Math.log(0.25), Math.log(0.5), Math.log(0.25) };
+        assertEquals(0.0, DoubleArrays.logSumExp(x), 1e-12);
+
+        // far below the smallest double when exponentiated directly
+        double[] small = { -5000.0, -5000.0 };
+        assertEquals(-5000.0 + Math.log(2.0), DoubleArrays.logSumExp(small), 1e-9);
+    }
+
+    @Test public void testIntegerArrays() {
+        for (int length = 1; length < 19; length++)
+            for (int start = 0; start < 4; start++) {
+                int[] x = new int[start + length + 2];
+                for (int i = 0; i < x.length; i++) x[i] = random.nextInt(10);
+
+                int sum = 0;
+                int arg = start;
+                for (int i = start; i < start + length; i++) {
+                    sum += x[i];
+                    if (x[i] > x[arg]) arg = i;
+                }
+
+                assertEquals(sum, IntegerArrays.sum(x, start, length));
+                assertEquals(arg, IntegerArrays.argMax(x, start, length));
+            }
+
+        int[] x = { 1, 2, 3, 4 };
+        IntegerArrays.inPlaceAdd(x, new int[] { 1, 1, 1 }, 1, 2);
+        assertEquals(1, x[0]);
+        assertEquals(3, x[1]);
+        assertEquals(4, x[2]);
+        assertEquals(4, x[3]);
+    }
+
+    @Test public void testDoubleMatrix() {
+        DoubleMatrix matrix = new DoubleMatrix(2, 3);
+        // 1 2 3
+        // 4 0 6
+        matrix.set(0, 0, 1); matrix.set(0, 1, 2); matrix.set(0, 2, 3);
+        matrix.set(1, 0, 4); matrix.add(1, 2, 6);
+
+        assertEquals(16.0, matrix.sum(), 0.0);
+        assertEquals(6.0, matrix.rowSum(0), 0.0);
+        assertEquals(2, matrix.rowArgMax(1));
+        assertEquals(5.0, matrix.columnSums()[0], 0.0);
+        assertEquals(1, matrix.columnArgMaxes()[0]);
+        assertEquals(0, matrix.columnArgMaxes()[1]);
+
+        DoubleMatrix.Vector column = matrix.column(2);
+        assertEquals(9.0, column.sum(), 0.0);
+        assertEquals(1, column.argMax());
+        column.set(0, 10.0);
+        assertEquals(10.0, matrix.get(0, 2), 0.0);
+        assertEquals(13.0, matrix.row(0).sum(), 0.0);
+
+        // growing keeps every element where it was and zero-fills the rest
+        matrix.resize(5, 7);
+        assertEquals(5, matrix.rows());
+        assertEquals(7, matrix.columns());
+        assertEquals(10.0, matrix.get(0, 2), 0.0);
+        assertEquals(4.0, matrix.get(1, 0), 0.0);
+        assertEquals(0.0, matrix.get(1, 6), 0.0);
+        assertEquals(0.0, matrix.rowSum(4), 0.0);
+        assertEquals(23.0, matrix.sum(), 0.0);
+
+        matrix.resize(5, 2);
+        matrix.resize(5, 3);
+        assertEquals(0.0, matrix.get(0, 2), 0.0);
+
+        matrix.normalizeRows();
+        assertEquals(1.0, matrix.rowSum(0), 1e-12);
+        assertEquals(0.0, matrix.rowSum(4), 0.0);
+
+        matrix.normalizeColumns();
+        assertEquals(1.0, matrix.column(0).sum(), 1e-12);
+        assertEquals(1.0, matrix.column(1).sum(), 1e-12);
+    }
+
+    @Test public void testIntMatrixAndConstantArrays() {
+        IntMatrix matrix = new IntMatrix(3, 2, 1);
+        matrix.add(2, 1, 5);
+        matrix.ensureRows(4);
+
+        assertEquals(11, matrix.sum());
+        assertEquals(1, matrix.rowArgMax(2));
+        assertEquals(2, matrix.columnArgMaxes()[1]);
+        assertEquals(0, matrix.rowSum(3));
+        assertEquals(8, matrix.column(1).sum());
+
+        double[][] doubles = DoubleArrays2D.constantArray(4, 2, 1.5);
+        assertEquals(4, doubles.length);
+        assertEquals(1.5, doubles[3][1], 0.0);
+
+        int[][] ints = IntegerArrays2D.constantArray(4, 2, 7);
+        assertEquals(7, ints[3][1]);
+        assertEquals(2, ints[3].length);
+    }
+
+    // Contiguous and strided argMax pick the same element: the first maximum, NaNs
+    // skipped unless the first element is NaN
+    @Test public void testMatrixArgMaxRule() {
+        double[][] rows = {
+            { Double.NaN, 1.0, 2.0 },
+            { 5.0, Double.NaN, 2.0 },
+            { 5.0, 3.0, Double.NaN },
+            { 1.0, 3.0, 2.0 },
+        };
+        DoubleMatrix matrix = new DoubleMatrix(4, 3);
+        DoubleMatrix transposed = new DoubleMatrix(3, 4);
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 3; column++) {
+                matrix.set(row, column, rows[row][column]);
+                transposed.set(column, row, rows[row][column]);
+            }
+        }
+
+        int[] columnArgMaxes = matrix.columnArgMaxes();
+        for (int column = 0; column < 3; column++) {
+            assertEquals(transposed.rowArgMax(column), matrix.column(column).argMax());
+            assertEquals(transposed.rowArgMax(column), columnArgMaxes[column]);
+        }
+        for (int row = 0; row < 4; row++)
+            assertEquals(matrix.rowArgMax(row), transposed.column(row).argMax());
+
+        assertEquals(0, matrix.column(0).argMax());
+        assertEquals(2, matrix.column(1).argMax());
+    }
+
+    @Test public void testMatrixSizeOverflow() {
+        try {
+            new DoubleMatrix(1 << 16, 1 << 16);
+            fail("rows x columns overflows an int");
+        } catch (IllegalArgumentException e) {
+        }
+
+        DoubleMatrix matrix = new DoubleMatrix(2, 2);
+        try {
+            matrix.resize(1 << 16, 1 << 16);
+            fail("rows x columns overflows an int");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            matrix.resize(1 << 30, 2);
+            fail("rows x stride overflows an int");
+        } catch (IllegalArgumentException e) {
+        }
+
+        try {
+            new IntMatrix(2, 2).resize(1 << 16, 1 << 16);
+            fail("rows x columns overflows an int");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
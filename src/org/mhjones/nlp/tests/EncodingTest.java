@@ -0,0 +1,278 @@
+package org.mhjones.nlp.tests;
+
+import org.junit.Test;
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.mhjones.nlp.math.DoubleArrays;
+import org.mhjones.nlp.util.ConcurrentEncoding;
+import org.mhjones.nlp.util.Counter;
+import org.mhjones.nlp.util.CounterMap;
+import org.mhjones.nlp.util.Encoding;
+import org.mhjones.nlp.util.FrozenEncoding;
+import org.mhjones.nlp.util.HashingEncoding;
+import org.mhjones.nlp.util.LruCache;
+import org.mhjones.nlp.util.WeakInterner;
+
+public class EncodingTest extends TestCase {
+    @Test public void testSequentialIds() {
+        Encoding<String> encoding = new Encoding<String>(2);
+
+        for (int i = 0; i < 100; i++)
+            assertEquals(i, encoding.encode("key-" + i));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, encoding.encode("key-" + i));
+            assertEquals("key-" + i, encoding.decode(i));
+        }
+
+        assertEquals(100, encoding.size());
+    }
+
+    @Test public void testConcurrentEncoding() throws InterruptedException {
+        final Encoding<String> encoding = new ConcurrentEncoding<String>(4);
+        final int keys = 5000;
+        final int[][] ids = new int[8][keys];
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[ids.length];
+
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        // each thread walks the key space from a different offset
+                        for (int i = 0; i < keys; i++) {
+                            int key = (i + thread * 997) % keys;
+                            ids[thread][key] = encoding.encode("key-" + key);
+                        }
+                    } catch (Throwable t) {
+                        error.set(t);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        // every id below size() must decode while others are still being added
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    while (!done.get()) {
+                        int size = encoding.size();
+                        for (int id = 0; id < size; id++)
+                            if (encoding.decode(id) == null) throw new AssertionError("Undecodable id " + id + " below size " + size);
+                    }
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        };
+        reader.start();
+
+        for (Thread thread : threads) thread.join();
+        done.set(true);
+        reader.join();
+
+        assertNull(error.get());
+        assertEquals(keys, encoding.size());
+
+        boolean[] seen = new boolean[keys];
+        for (int key = 0; key < keys; key++) {
+            int id = ids[0][key];
+            for (int t = 1; t < ids.length; t++)
+                assertEquals(id, ids[t][key]);
+
+            assertFalse(seen[id]);
+            seen[id] = true;
+            assertEquals("key-" + key, encoding.decode(id));
+        }
+    }
+
+    @Test public void testCounterOnSharedEncoding() {
+        Encoding<String> encoding = new ConcurrentEncoding<String>();
+        Counter<String> first = new Counter<String>(encoding);
+        Counter<String> second = new Counter<String>(encoding);
+
+        for (int i = 0; i < 500; i++)
+            encoding.encode("other-" + i);
+
+        first.incrementCount("a", 2.0);
+        second.incrementCount("b");
+        first.incrementCount("b");
+
+        assertEquals(2.0, first.getCount("a"), 0.0);
+        assertEquals(1.0, first.getCount("b"), 0.0);
+        assertEquals(1.0, second.getCount("b"), 0.0);
+        assertEquals(0.0, second.getCount("a"), 0.0);
+    }
+
+    @Test public void testFrozenEncoding() {
+        Encoding<String> encoding = new Encoding<String>();
+        for (int i = 0; i < 300; i++)
+            encoding.encode("key-" + i);
+
+        Encoding<String> frozen = encoding.freeze();
+
+        assertTrue(frozen instanceof FrozenEncoding);
+        assertSame(frozen, frozen.freeze());
+
+        assertEquals(300, frozen.size());
+        for (int i = 0; i < 300; i++) {
+            assertEquals(encoding.encode("key-" + i), frozen.lookup("key-" + i));
+            assertEquals(encoding.encode("key-" + i), frozen.encode("key-" + i));
+            assertEquals("key-" + i, frozen.decode(i));
+        }
+
+        assertEquals(Encoding.UNKNOWN, frozen.lookup("unseen"));
+        assertEquals(Encoding.UNKNOWN, frozen.encode("unseen"));
+        assertFalse(frozen.containsKey("unseen"));
+        assertTrue(frozen.keySet().contains("key-7"));
+        assertEquals(300, frozen.keySet().size());
+        assertEquals(300, frozen.size());
+    }
+
+    @Test public void testReadsDoNotGrowEncoding() {
+        Counter<String> counter = new Counter<String>();
+        counter.incrementCount("seen");
+
+        assertEquals(Encoding.UNKNOWN, counter.encoding.lookup("unseen"));
+        assertEquals(0.0, counter.getCount("unseen"), 0.0);
+        assertEquals(1, counter.size());
+
+        CounterMap<String, String> counts = new CounterMap<String, String>();
+        counts.incrementCount("row", "seen");
+        counts.freeze();
+
+        assertEquals(0.0, counts.getCount("row", "unseen"), 0.0);
+        assertEquals(0.0, counts.getCount("unseen", "seen"), 0.0);
+        assertEquals(1.0, counts.getCount("row", "seen"), 0.0);
+        assertEquals(1, counts.primaryEncoding.size());
+        assertEquals(1, counts.secondaryEncoding.size());
+
+        try {
+            counts.incrementCount("row", "unseen");
+            fail("frozen CounterMap accepted a new key");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test public void testHashingEncodingIsBounded() {
+        HashingEncoding<String> encoding = new HashingEncoding<String>(8, 4);
+        Counter<String> counter = new Counter<String>(encoding);
+
+        for (int i = 0; i < 10000; i++) {
+            int eKey = encoding.encode("key-" + i);
+            assertTrue(eKey >= 0 && eKey < 256);
+            assertEquals(eKey, encoding.lookup("key-" + i));
+            counter.incrementCount("key-" + i);
+        }
+
+        assertEquals(256, encoding.size());
+        assertEquals(256, counter.values.length);
+        assertEquals(10000.0, DoubleArrays.sum(counter.values), 0.0);
+        assertTrue(encoding.containsKey("never seen"));
+
+        // Only the first four buckets keep a key for decoding
+        assertEquals(4, encoding.keySet().size());
+        assertEquals(encoding.encode("key-0"), encoding.lookup(encoding.decode(encoding.encode("key-0"))));
+        assertSame(encoding, encoding.freeze());
+    }
+
+    @Test public void testLruCacheHonorsMaxEntries() {
+        for (int maxEntries : new int[] { 1, 3, 16, 17, 100 }) {
+            LruCache<String, Integer> cache = new LruCache<String, Integer>(maxEntries);
+            for (int i = 0; i < 1000; i++) {
+                cache.put("key-" + i, i);
+                assertTrue(cache.size() <= maxEntries);
+            }
+            assertEquals(Integer.valueOf(999), cache.get("key-999"));
+        }
+    }
+
+    @Test public void testHashedRowsStartEmpty() {
+        HashingEncoding<String> rows = new HashingEncoding<String>(20);
+        CounterMap<String, String> counts = new CounterMap<String, String>(rows, new Encoding<String>());
+
+        // a million buckets share one empty row until they are counted
+        assertEquals(1 << 20, counts.values.length);
+        assertSame(counts.values[0], counts.values[counts.values.length - 1]);
+        assertSame(counts.secondaryRevIdx[0], counts.secondaryRevIdx[counts.values.length - 1]);
+
+        counts.incrementCount("a", "x");
+        counts.incrementCount("b", "y", 2.0);
+        int a = rows.lookup("a");
+        int b = rows.lookup("b");
+        assertTrue(counts.secondaryRevIdx[a] != counts.secondaryRevIdx[b]);
+        assertEquals(1.0, counts.getCount("a", "x"), 0.0);
+        assertEquals(0.0, counts.getCount("a", "y"), 0.0);
+        assertEquals(2.0, counts.getCount("b", "y"), 0.0);
+        for (int row = 0; row < 3; row++)
+            if (row != a && row != b) assertEquals(0, counts.secondaryRevIdx[row].size());
+    }
+
+    @Test public void testWeakInternerIsShared() {
+        WeakInterner<String> interner = new WeakInterner<String>();
+        Encoding<String> first = new Encoding<String>(16, interner);
+        Encoding<String> second = new ConcurrentEncoding<String>(16, 2, interner);
+
+        for (int i = 0; i < 100; i++) {
+            first.encode(new String("key-" + i));
+            second.encode(new String("key-" + (i + 50)));
+        }
+
+        // equal keys in both encodings are one instance
+        assertSame(first.decode(first.lookup("key-75")), second.decode(second.lookup("key-75")));
+        assertEquals(150, interner.size());
+        assertTrue(interner.footprint() >= 150 * 2 * 6);
+        assertEquals(Encoding.UNKNOWN, first.lookup("key-120"));
+
+        // lookups through the interner allocate nothing
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        String known = new String("key-75");
+        String unknown = "key-120";
+
+        for (int i = 0; i < 1000; i++) {
+            first.lookup(known);
+            first.lookup(unknown);
+        }
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 10000; i++) {
+            first.lookup(known);
+            first.lookup(unknown);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        // a single allocation per lookup would be at least 320000 bytes
+        assertTrue("allocated " + allocated + " bytes", allocated < 16000);
+    }
+
+    // Whether and when discarded keys are released is up to the collector, so this
+    // only checks what holds regardless: the interner never holds more than the
+    // distinct keys it was given, and keys still in use stay canonical
+    @Test public void testWeakInternerWithDiscardedEncodings() throws InterruptedException {
+        WeakInterner<String> interner = new WeakInterner<String>();
+        Encoding<String> kept = new Encoding<String>(16, interner);
+        String canonical = new String("kept");
+        kept.encode(canonical);
+
+        for (int round = 0; round < 10; round++) {
+            Encoding<String> temporary = new Encoding<String>(16, interner);
+            for (int i = 0; i < 1000; i++)
+                temporary.encode("temporary-" + round + "-" + i);
+            // a repeated key is shared, not stored again
+            temporary.encode(new String("kept"));
+        }
+
+        System.gc();
+
+        assertTrue(interner.size() >= 1);
+        assertTrue(interner.size() <= 1 + 10 * 1000);
+        assertEquals(0, kept.lookup("kept"));
+        assertSame(canonical, interner.intern(new String("kept")));
+    }
+}
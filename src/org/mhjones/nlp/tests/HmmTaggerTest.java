@@ -0,0 +1,149 @@
+package org.mhjones.nlp.tests;
+
+import org.junit.Test;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.mhjones.nlp.examples.HmmTagger;
+import org.mhjones.nlp.util.Pair;
+
+public class HmmTaggerTest extends TestCase {
+    private Pair<String[], String[]> sentence(String tagged) {
+        String[] tokens = tagged.split(" ");
+        String[] words = new String[tokens.length];
+        String[] tags = new String[tokens.length];
+
+        for (int i = 0; i < tokens.length; i++) {
+            int split = tokens[i].indexOf('/');
+            words[i] = tokens[i].substring(0, split);
+            tags[i] = tokens[i].substring(split + 1);
+        }
+
+        return new Pair<String[], String[]>(words, tags);
+    }
+
+    private List<Pair<String[], String[]>> trainingData() {
+        List<Pair<String[], String[]>> data = new ArrayList<Pair<String[], String[]>>();
+        data.add(sentence("the/DT dog/NN runs/VB"));
+        data.add(sentence("a/DT cat/NN sleeps/VB"));
+        data.add(sentence("the/DT cat/NN runs/VB fast/RB"));
+        data.add(sentence("dogs/NN run/VB"));
+        data.add(sentence("the/DT run/NN ends/VB"));
+        return data;
+    }
+
+    // Random sentences from a small random HMM, so every tag can follow every other
+    private List<Pair<String[], String[]>> randomData(int size, long seed) {
+        Random random = new Random(seed);
+        String[] tags = { "A", "B", "C" };
+        List<Pair<String[], String[]>> data = new ArrayList<Pair<String[], String[]>>();
+
+        for (int i = 0; i < size; i++) {
+            int length = 1 + random.nextInt(6);
+            String[] words = new String[length];
+            String[] sentenceTags = new String[length];
+            for (int j = 0; j < length; j++) {
+                int tag = random.nextInt(tags.length);
+                sentenceTags[j] = tags[tag];
+                words[j] = "w" + (random.nextBoolean() ? tag : random.nextInt(8));
+            }
+            data.add(new Pair<String[], String[]>(words, sentenceTags));
+        }
+
+        return data;
+    }
+
+    @Test public void testTagsTrainingPatterns() {
+        HmmTagger tagger = new HmmTagger();
+        tagger.train(trainingData());
+
+        String[] tags = tagger.tag(new String[] { "the", "dog", "sleeps" });
+        assertEquals("DT", tags[0]);
+        assertEquals("NN", tags[1]);
+        assertEquals("VB", tags[2]);
+
+        // "run" is ambiguous; context decides, and unseen words still get a tag
+        tags = tagger.tag(new String[] { "a", "run", "unseenword" });
+        assertEquals("NN", tags[1]);
+        assertEquals("VB", tags[2]);
+
+        assertEquals(0, tagger.tag(new String[0]).length);
+    }
+
+    @Test public void testViterbiFindsBestTagging() {
+        HmmTagger tagger = new HmmTagger(0.5);
+        tagger.train(randomData(200, 5));
+
+        String[] tagNames = { "A", "B", "C" };
+        for (Pair<String[], String[]> sentence : randomData(30, 6)) {
+            String[] words = sentence.getFirst();
+            int[] tags = new int[words.length];
+            double score = tagger.tag(words, tags);
+
+            // brute force over every tagging
+            double best = Double.NEGATIVE_INFINITY;
+            int[] sequence = new int[words.length];
+            String[] candidate = new String[words.length];
+            for (int code = 0; code < Math.pow(3, words.length); code++) {
+                for (int i = 0, rest = code; i < words.length; i++, rest /= 3)
+                    candidate[i] = tagNames[rest % 3];
+                best = Math.max(best, tagger.logProbability(words, candidate));
+            }
+
+            String[] found = new String[words.length];
+            for (int i = 0; i < words.length; i++) found[i] = tagger.tagEncoding().decode(tags[i]);
+
+            assertEquals(best, score, 1e-9);
+            assertEquals(best, tagger.logProbability(words, found), 1e-9);
+        }
+    }
+
+    @Test public void testBeamAndTagDictionary() {
+        HmmTagger tagger = new HmmTagger();
+        tagger.train(randomData(500, 7));
+        List<Pair<String[], String[]>> test = randomData(50, 8);
+
+        HmmTagger pruned = new HmmTagger();
+        pruned.train(randomData(500, 7));
+        pruned.setBeam(50.0);
+
+        for (Pair<String[], String[]> sentence : test) {
+            int[] exact = new int[sentence.getFirst().length];
+            int[] beamed = new int[exact.length];
+            assertEquals(tagger.tag(sentence.getFirst(), exact), pruned.tag(sentence.getFirst(), beamed), 0.0);
+        }
+
+        // with the dictionary, a word seen with only one tag always gets it
+        HmmTagger restricted = new HmmTagger();
+        restricted.train(trainingData());
+        restricted.setTagDictionary(true);
+        restricted.setBeam(0.0);
+        assertEquals("DT", restricted.tag(new String[] { "the", "the" })[1]);
+    }
+
+    @Test public void testTaggingDoesNotAllocate() {
+        HmmTagger tagger = new HmmTagger();
+        tagger.train(randomData(500, 9));
+        tagger.setBeam(10.0);
+        tagger.setTagDictionary(true);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        String[] words = { "w0", "w1", "w2", "unseen", "w3", "w1", "w7" };
+        int[] tags = new int[words.length];
+
+        for (int i = 0; i < 1000; i++)
+            tagger.tag(words, tags);
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 10000; i++)
+            tagger.tag(words, tags);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        // a single allocation per call would be at least 160000 bytes
+        assertTrue("allocated " + allocated + " bytes", allocated < 16000);
+    }
+}
@@ -0,0 +1,232 @@
+package org.mhjones.nlp.tests;
+
+import org.junit.Test;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.mhjones.nlp.math.CachingDifferentiableFunction;
+import org.mhjones.nlp.math.LBFGSMinimizer;
+import org.mhjones.nlp.math.ShardedDifferentiableFunction;
+
+public class LBFGSMinimizerTest extends TestCase {
+    // sum_i (i+1) * (x_i - i)^2, minimized at x_i = i
+    static class Quadratic extends CachingDifferentiableFunction {
+        protected double calculate(double[] x, double[] gradient) {
+            double value = 0.0;
+            for (int i = 0; i < x.length; i++) {
+                double d = x[i] - i;
+                value += (i+1) * d * d;
+                gradient[i] = 2 * (i+1) * d;
+            }
+            return value;
+        }
+
+        Quadratic(int dimension) {
+            super(dimension);
+        }
+    }
+
+    static class Rosenbrock extends CachingDifferentiableFunction {
+        protected double calculate(double[] x, double[] gradient) {
+            double a = 1 - x[0];
+            double b = x[1] - x[0]*x[0];
+            gradient[0] = -2*a - 400*x[0]*b;
+            gradient[1] = 200*b;
+            return a*a + 100*b*b;
+        }
+
+        Rosenbrock() {
+            super(2);
+        }
+    }
+
+    // sum_i (x_i^2 - 1)^2 + 0.1 (i+1) x_i, a double well in each coordinate, which
+    // is concave near 0. Records the point and gradient each time the minimizer
+    // asks for a gradient, i.e. the start and every accepted step.
+    static class DoubleWell extends CachingDifferentiableFunction {
+        final List<double[]> points = new ArrayList<double[]>();
+        final List<double[]> gradients = new ArrayList<double[]>();
+
+        protected double calculate(double[] x, double[] gradient) {
+            double value = 0.0;
+            for (int i = 0; i < x.length; i++) {
+                double w = x[i]*x[i] - 1;
+                value += w*w + 0.1*(i+1)*x[i];
+                gradient[i] = 4*x[i]*w + 0.1*(i+1);
+            }
+            return value;
+        }
+
+        public double[] derivativeAt(double[] x) {
+            double[] gradient = super.derivativeAt(x);
+            points.add(x.clone());
+            gradients.add(gradient.clone());
+            return gradient;
+        }
+
+        DoubleWell(int dimension) {
+            super(dimension);
+        }
+    }
+
+    static double dot(double[] x, double[] y) {
+        double sum = 0.0;
+        for (int i = 0; i < x.length; i++) sum += x[i] * y[i];
+        return sum;
+    }
+
+    static double[] difference(double[] x, double[] y) {
+        double[] ret = new double[x.length];
+        for (int i = 0; i < x.length; i++) ret[i] = x[i] - y[i];
+        return ret;
+    }
+
+    // Negative log likelihood of a binary logistic regression
+    static class Logistic extends ShardedDifferentiableFunction {
+        final double[][] data;
+        final boolean[] labels;
+
+        protected double calculate(double[] w, int start, int end, double[] gradient) {
+            double value = 0.0;
+            for (int n = start; n < end; n++) {
+                double score = 0.0;
+                for (int i = 0; i < w.length; i++) score += w[i] * data[n][i];
+                double p = 1.0 / (1.0 + Math.exp(-score));
+                value -= Math.log(labels[n] ? p : 1 - p);
+                double error = p - (labels[n] ? 1 : 0);
+                for (int i = 0; i < w.length; i++) gradient[i] += error * data[n][i];
+            }
+            return value;
+        }
+
+        Logistic(double[][] data, boolean[] labels, int shards, ForkJoinPool pool) {
+            super(data[0].length, data.length, shards, pool);
+            this.data = data;
+            this.labels = labels;
+        }
+    }
+
+    @Test
+    public void testQuadratic() {
+        Quadratic function = new Quadratic(20);
+        double[] x = new LBFGSMinimizer(5, 1e-14, 500).minimize(function, new double[20]);
+
+        for (int i = 0; i < 20; i++)
+            assertEquals(i, x[i], 1e-5);
+    }
+
+    @Test
+    public void testRosenbrock() {
+        Rosenbrock function = new Rosenbrock();
+        LBFGSMinimizer minimizer = new LBFGSMinimizer();
+        double[] x = minimizer.minimize(function, new double[] { -1.2, 1.0 });
+
+        assertEquals(1.0, x[0], 1e-4);
+        assertEquals(1.0, x[1], 1e-4);
+        // the gradient after each accepted step comes from the cache
+        assertTrue(function.evaluations() < 2 * minimizer.iterations() + 50);
+    }
+
+    @Test
+    public void testCaching() {
+        Quadratic function = new Quadratic(3);
+        double[] x = { 1.0, 2.0, 3.0 };
+
+        double value = function.valueAt(x);
+        double[] gradient = function.derivativeAt(x).clone();
+        assertEquals(1, function.evaluations());
+
+        x[0] = 0.0;
+        function.valueAt(x);
+        assertEquals(2, function.evaluations());
+        assertEquals(value, function.valueAt(new double[] { 1.0, 2.0, 3.0 }), 0.0);
+        assertTrue(Arrays.equals(gradient, function.derivativeAt(new double[] { 1.0, 2.0, 3.0 })));
+        assertEquals(3, function.evaluations());
+    }
+
+    @Test
+    public void testShardedMatchesSequential() {
+        Random random = new Random(3);
+        double[][] data = new double[1000][6];
+        boolean[] labels = new boolean[1000];
+        for (int n = 0; n < data.length; n++) {
+            for (int i = 0; i < 6; i++) data[n][i] = random.nextGaussian();
+            labels[n] = data[n][0] - data[n][1] + 0.5*random.nextGaussian() > 0;
+        }
+
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool parallel = new ForkJoinPool(4);
+        try {
+            Logistic sequential = new Logistic(data, labels, 8, single);
+            Logistic sharded = new Logistic(data, labels, 8, parallel);
+            double[] w = { 0.1, -0.2, 0.3, 0.0, 0.5, -0.1 };
+
+            assertEquals(sequential.valueAt(w), sharded.valueAt(w), 0.0);
+            assertTrue(Arrays.equals(sequential.derivativeAt(w), sharded.derivativeAt(w)));
+
+            // one shard is the plain sum over the data
+            Logistic whole = new Logistic(data, labels, 1, single);
+            assertEquals(whole.valueAt(w), sharded.valueAt(w), 1e-9);
+
+            double[] expected = new LBFGSMinimizer().minimize(sequential, new double[6]);
+            double[] actual = new LBFGSMinimizer().minimize(sharded, new double[6]);
+            assertTrue(Arrays.equals(expected, actual));
+            assertTrue(actual[0] > 0 && actual[1] < 0);
+        } finally {
+            single.shutdown();
+            parallel.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectedPairKeepsHistory() {
+        // with one pair of memory the history is full after the first step, and
+        // crossing the concave region gives a step with s.y <= 0
+        DoubleWell function = new DoubleWell(2);
+        double[] x = new LBFGSMinimizer(1, 1e-14, 500).minimize(function, new double[] { 0.05, -0.05 });
+        double[] gradient = function.derivativeAt(x);
+        for (int i = 0; i < 2; i++) assertEquals(0.0, gradient[i], 1e-6);
+
+        // replay: each step must follow the direction the kept pair gives
+        double[] s = null;
+        double[] y = null;
+        int rejected = 0;
+        for (int k = 0; k + 1 < function.points.size() - 1; k++) {
+            double[] g = function.gradients.get(k);
+            double[] d = new double[2];
+            for (int i = 0; i < 2; i++) d[i] = -g[i];
+            if (s != null) {
+                double rho = 1.0 / dot(s, y);
+                double a = rho * dot(s, d);
+                for (int i = 0; i < 2; i++) d[i] -= a * y[i];
+                double scale = 1.0 / (rho * dot(y, y));
+                for (int i = 0; i < 2; i++) d[i] *= scale;
+                double b = rho * dot(y, d);
+                for (int i = 0; i < 2; i++) d[i] += (a - b) * s[i];
+                if (!(dot(d, g) < 0.0)) {
+                    s = null;
+                    for (int i = 0; i < 2; i++) d[i] = -g[i];
+                }
+            }
+
+            double[] step = difference(function.points.get(k+1), function.points.get(k));
+            assertTrue(dot(step, d) > 0.0);
+            assertEquals(0.0, (step[0]*d[1] - step[1]*d[0]) / (Math.sqrt(dot(step, step) * dot(d, d))), 1e-9);
+
+            double[] newS = step;
+            double[] newY = difference(function.gradients.get(k+1), g);
+            if (dot(newS, newY) > 0.0) {
+                s = newS;
+                y = newY;
+            } else if (s != null) {
+                rejected++;
+            }
+        }
+        assertTrue(rejected > 0);
+    }
+}
@@ -0,0 +1,52 @@
+package org.mhjones.nlp.tests;
+
+import org.junit.Test;
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.management.ObjectName;
+
+import org.mhjones.nlp.util.Counter;
+import org.mhjones.nlp.util.LatencyHistogram;
+import org.mhjones.nlp.util.Metrics;
+
+// Runs in both configurations: ./test runs the suite with metrics off, then
+// this class again with -Dorg.mhjones.nlp.metrics=true
+public class MetricsTest extends TestCase {
+    @Test public void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(0.5));
+
+        for (int i = 0; i < 99; i++) histogram.record(100);
+        histogram.record(1000000);
+
+        assertEquals(100, histogram.count());
+        assertEquals((99 * 100 + 1000000) / 100.0, histogram.mean(), 1e-9);
+        assertEquals(127, histogram.percentile(0.5));
+        assertEquals(127, histogram.percentile(0.99));
+        assertTrue(histogram.percentile(1.0) >= 1000000);
+    }
+
+    @Test public void testHooks() throws Exception {
+        Map<String, Double> before = Metrics.snapshot();
+
+        Counter<String> counter = new Counter<String>(2);
+        for (int i = 0; i < 10; i++) counter.incrementCount("key-" + (i % 5));
+
+        Map<String, Double> after = Metrics.snapshot();
+        // with metrics off the hooks must record nothing
+        double scale = Metrics.ENABLED ? 1.0 : 0.0;
+        assertEquals(5.0 * scale, after.get("encoding.misses") - before.get("encoding.misses"), 0.0);
+        assertEquals(5.0 * scale, after.get("encoding.hits") - before.get("encoding.hits"), 0.0);
+        assertEquals(2.0 * scale, after.get("counter.resizes") - before.get("counter.resizes"), 0.0);
+    }
+
+    @Test public void testMBean() throws Exception {
+        new Counter<String>(2).incrementCount("key");
+        Metrics.registerMBean();
+
+        Object misses = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(Metrics.OBJECT_NAME), "EncodeMisses");
+        assertEquals(Metrics.ENABLED, (Long) misses >= 1);
+    }
+}
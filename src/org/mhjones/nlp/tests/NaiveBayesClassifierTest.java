@@ -9,7 +9,9 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.Set;
 import java.util.HashSet;
+import org.mhjones.nlp.examples.LabeledBatch;
 import org.mhjones.nlp.examples.NaiveBayesClassifier;
+import org.mhjones.nlp.util.DelimitedReader;
 import org.mhjones.nlp.util.FeatureExtractor;
 import org.mhjones.nlp.util.Pair;
 
@@ -101,6 +103,265 @@ public class NaiveBayesClassifierTest extends TestCase {
         }
     }
 
+    private Set<Pair<String, String>> randomData(int size, Set<String> sample) {
+        java.util.Random random = new java.util.Random(42);
+        String[] labels = { "spam", "ham", "eggs" };
+        Set<Pair<String, String>> pairs = new HashSet<Pair<String, String>>();
+
+        for (int i = 0; i < size; i++) {
+            StringBuilder datum = new StringBuilder();
+            int length = 1 + random.nextInt(12);
+            for (int j = 0; j < length; j++)
+                datum.append((char) ('a' + random.nextInt(20)));
+
+            pairs.add(new Pair<String, String>(datum.toString(), labels[random.nextInt(labels.length)]));
+            if (i % 10 == 0) sample.add(datum.toString());
+        }
+
+        return pairs;
+    }
+
+    @Test public void testParallelTrainingMatchesSequential() throws InterruptedException {
+        Set<String> testData = new HashSet<String>();
+        Set<Pair<String, String>> labeledTrainingData = randomData(2000, testData);
+
+        NaiveBayesClassifier sequential = new NaiveBayesClassifier();
+        sequential.train(labeledTrainingData);
+
+        NaiveBayesClassifier parallel = new NaiveBayesClassifier();
+        parallel.train(labeledTrainingData, 4);
+
+        for (String datum : testData) {
+            assertEquals(sequential.label(datum), parallel.label(datum));
+            assertEquals(Double.doubleToLongBits(sequential.score(datum)), Double.doubleToLongBits(parallel.score(datum)));
+        }
+    }
+
+    // Enough data for several batches, so the shards are cleared and reused
+    @Test public void testParallelTrainingOverManyBatches() throws InterruptedException {
+        Set<String> testData = new HashSet<String>();
+        Set<Pair<String, String>> labeledTrainingData = randomData(20000, testData);
+
+        NaiveBayesClassifier sequential = new NaiveBayesClassifier();
+        sequential.train(labeledTrainingData);
+
+        NaiveBayesClassifier parallel = new NaiveBayesClassifier();
+        parallel.train(labeledTrainingData, 2);
+
+        for (String datum : testData)
+            assertEquals(Double.doubleToLongBits(sequential.score(datum)), Double.doubleToLongBits(parallel.score(datum)));
+    }
+
+    @Test public void testStreamingTrainingMatchesSet() throws java.io.IOException, InterruptedException {
+        Set<String> testData = new HashSet<String>();
+        Set<Pair<String, String>> labeledTrainingData = randomData(2000, testData);
+
+        StringBuilder corpus = new StringBuilder();
+        for (Pair<String, String> datum : labeledTrainingData)
+            corpus.append(datum.getSecond()).append("\t").append(datum.getFirst()).append("\n\n");
+
+        NaiveBayesClassifier fromSet = new NaiveBayesClassifier();
+        fromSet.train(labeledTrainingData);
+
+        NaiveBayesClassifier streamed = new NaiveBayesClassifier();
+        streamed.train(new DelimitedReader(new java.io.StringReader(corpus.toString()), "\t"));
+
+        NaiveBayesClassifier streamedParallel = new NaiveBayesClassifier();
+        streamedParallel.train(new DelimitedReader(new java.io.StringReader(corpus.toString()), "\t"), 3);
+
+        for (String datum : testData) {
+            assertEquals(fromSet.label(datum), streamed.label(datum));
+            assertEquals(Double.doubleToLongBits(fromSet.score(datum)), Double.doubleToLongBits(streamed.score(datum)));
+            assertEquals(Double.doubleToLongBits(fromSet.score(datum)), Double.doubleToLongBits(streamedParallel.score(datum)));
+        }
+    }
+
+    @Test public void testBatchLabelingMatchesSequential() {
+        Set<String> testData = new HashSet<String>();
+        NaiveBayesClassifier classifier = new NaiveBayesClassifier();
+        classifier.train(randomData(20000, testData));
+
+        String[] data = testData.toArray(new String[testData.size()]);
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        LabeledBatch batch = classifier.labelBatch(data, pool);
+        pool.shutdown();
+
+        assertEquals(data.length, batch.size());
+        for (int i = 0; i < data.length; i++) {
+            assertEquals(classifier.label(data[i]), batch.label(i));
+            assertEquals(Double.doubleToLongBits(classifier.score(data[i])), Double.doubleToLongBits(batch.score(i)));
+        }
+
+        assertEquals(0, classifier.labelBatch(new String[0]).size());
+    }
+
+    @Test public void testCachedLabeling() {
+        Set<String> testData = new HashSet<String>();
+        Set<Pair<String, String>> firstData = randomData(1000, testData);
+        Set<Pair<String, String>> moreData = trainingData(1, 1);
+
+        NaiveBayesClassifier cached = new NaiveBayesClassifier();
+        NaiveBayesClassifier uncached = new NaiveBayesClassifier();
+        cached.enableCache(1000);
+        cached.train(firstData);
+        uncached.train(firstData);
+
+        for (int pass = 0; pass < 2; pass++) {
+            for (String datum : testData) {
+                assertEquals(uncached.label(datum), cached.label(datum));
+                assertEquals(uncached.score(datum), cached.score(datum), 0.0);
+            }
+        }
+
+        // each datum is computed once; its other three lookups hit
+        assertEquals(testData.size(), cached.cache().misses());
+        assertEquals(3 * testData.size(), cached.cache().hits());
+
+        // retraining must not serve labels from the old model
+        cached.train(moreData);
+        uncached.train(moreData);
+        for (String datum : testData) {
+            assertEquals(uncached.label(datum), cached.label(datum));
+            assertEquals(uncached.score(datum), cached.score(datum), 0.0);
+        }
+
+        // entries from the old model count as misses, not hits
+        assertEquals(2 * testData.size(), cached.cache().misses());
+        assertEquals(4 * testData.size(), cached.cache().hits());
+    }
+
+    @Test public void testIncrementalUpdateMatchesTraining() {
+        Set<String> testData = new HashSet<String>();
+        Set<Pair<String, String>> labeledTrainingData = randomData(2000, testData);
+
+        NaiveBayesClassifier batch = new NaiveBayesClassifier();
+        batch.train(labeledTrainingData);
+
+        NaiveBayesClassifier online = new NaiveBayesClassifier();
+        for (Pair<String, String> datum : labeledTrainingData) {
+            online.update(datum.getFirst(), datum.getSecond());
+            // label after every update, so the compiled scorer is updated in place
+            // rather than recompiled, and stale rows would show up below
+            online.label(datum.getFirst());
+        }
+
+        for (String datum : testData) {
+            assertEquals(batch.label(datum), online.label(datum));
+            assertEquals(Double.doubleToLongBits(batch.score(datum)), Double.doubleToLongBits(online.score(datum)));
+        }
+    }
+
+    @Test public void testCachedLabelingWithUpdates() {
+        Set<String> testData = new HashSet<String>();
+        Set<Pair<String, String>> labeledTrainingData = randomData(500, testData);
+
+        NaiveBayesClassifier cached = new NaiveBayesClassifier();
+        NaiveBayesClassifier uncached = new NaiveBayesClassifier();
+        cached.enableCache(1000);
+        cached.train(labeledTrainingData);
+        uncached.train(labeledTrainingData);
+
+        // alternating updates and labels must always agree with the uncached model
+        String[] labels = { "spam", "ham", "eggs" };
+        int i = 0;
+        for (String datum : testData) {
+            String label = labels[i++ % labels.length];
+            cached.update(datum, label);
+            uncached.update(datum, label);
+
+            for (String other : testData) {
+                assertEquals(uncached.label(other), cached.label(other));
+                assertEquals(Double.doubleToLongBits(uncached.score(other)), Double.doubleToLongBits(cached.score(other)));
+            }
+        }
+
+        // an update sharing no features with a cached datum leaves its entry alone
+        cached.label("abc");
+        long misses = cached.cache().misses();
+        cached.update("zzz", "ham");
+        cached.label("abc");
+        assertEquals(misses, cached.cache().misses());
+
+        // one that does share features makes it stale
+        cached.update("abd", "eggs");
+        uncached.update("zzz", "ham");
+        uncached.update("abd", "eggs");
+        assertEquals(uncached.score("abc"), cached.score("abc"), 0.0);
+        assertEquals(misses + 1, cached.cache().misses());
+
+        // a new label makes every entry stale
+        cached.update("qqq", "toast");
+        uncached.update("qqq", "toast");
+        assertEquals(uncached.label("abc"), cached.label("abc"));
+        assertEquals(misses + 2, cached.cache().misses());
+    }
+
+    @Test public void testSaveAndLoad() throws java.io.IOException {
+        Set<String> testData = new HashSet<String>();
+        NaiveBayesClassifier trained = new NaiveBayesClassifier();
+        trained.train(randomData(1000, testData));
+        testData.add("unseen-XYZ");
+
+        java.io.File file = java.io.File.createTempFile("naive-bayes", ".model");
+        file.deleteOnExit();
+        trained.save(file.getPath());
+
+        NaiveBayesClassifier loaded = new NaiveBayesClassifier();
+        loaded.load(file.getPath());
+
+        for (String datum : testData) {
+            assertEquals(trained.label(datum), loaded.label(datum));
+            assertEquals(Double.doubleToLongBits(trained.score(datum)), Double.doubleToLongBits(loaded.score(datum)));
+        }
+    }
+
+    @Test public void testLongInputScore() {
+        NaiveBayesClassifier classifier = new NaiveBayesClassifier();
+        classifier.train(trainingData(3, 2, 1, 5));
+
+        StringBuilder datum = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+            datum.append("vote");
+
+        // a product of this many probabilities underflows; the log-space sum does not
+        assertEquals("ham", classifier.label(datum.toString()));
+        assertEquals(1.0, classifier.score(datum.toString()), 0.00001);
+    }
+
+    @Test public void testLabelingDoesNotAllocate() {
+        NaiveBayesClassifier classifier = new NaiveBayesClassifier();
+        classifier.train(trainingData(3, 2, 1, 5));
+        classifier.freeze();
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        String datum = "a vote for porn, unseen!";
+
+        for (int i = 0; i < 1000; i++)
+            classifier.label(datum);
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 10000; i++)
+            classifier.label(datum);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        // a single allocation per call would be at least 160000 bytes
+        assertTrue("allocated " + allocated + " bytes", allocated < 16000);
+    }
+
+    @Test public void testFrozenLabeling() {
+        NaiveBayesClassifier classifier = new NaiveBayesClassifier();
+        classifier.train(trainingData(3, 2, 1, 5));
+
+        String porn = classifier.label("porn");
+        String vote = classifier.label("vote");
+        classifier.freeze();
+
+        assertEquals(porn, classifier.label("porn"));
+        assertEquals(vote, classifier.label("vote"));
+        assertEquals("ham", classifier.label("xyzzy-vote"));
+    }
+
     @Test public void testMultipleKeys() {
         NaiveBayesClassifier classifier = new SimpleNaiveBayesClassifier();
 
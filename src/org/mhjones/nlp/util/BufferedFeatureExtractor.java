@@ -0,0 +1,6 @@
+package org.mhjones.nlp.util;
+
+public interface BufferedFeatureExtractor extends FeatureExtractor {
+    // Appends the features of datum[start, end) to features, without clearing it
+    public void extractFeatures(CharSequence datum, int start, int end, FeatureBuffer features);
+}
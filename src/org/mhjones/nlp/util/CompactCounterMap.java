@@ -0,0 +1,93 @@
+package org.mhjones.nlp.util;
+
+import java.io.Serializable;
+import java.util.Set;
+
+// Read-mostly compressed sparse row snapshot of a CounterMap: one values array,
+// one column (encoded secondary) array and one row offset array, with each row
+// sorted by encoded secondary. Row primary holds positions rowOffsets[primary]
+// to rowOffsets[primary+1]. Shares the encodings of the CounterMap it came from.
+public class CompactCounterMap<E,F> implements Serializable {
+    public Encoding<E> primaryEncoding;
+    public Encoding<F> secondaryEncoding;
+
+    public double[] values;
+    public int[] columns;
+    public int[] rowOffsets;
+
+    public int rows() {
+	return rowOffsets.length - 1;
+    }
+
+    // Position of eSecondary in row ePrimary, or Encoding.UNKNOWN
+    public int find(int ePrimary, int eSecondary) {
+	int low = rowOffsets[ePrimary];
+	int high = rowOffsets[ePrimary+1] - 1;
+
+	while (low <= high) {
+	    int mid = (low + high) >>> 1;
+
+	    if (columns[mid] < eSecondary) low = mid + 1;
+	    else if (columns[mid] > eSecondary) high = mid - 1;
+	    else return mid;
+	}
+
+	return Encoding.UNKNOWN;
+    }
+
+    public double getEncodedCount(int ePrimary, int eSecondary) {
+	if (ePrimary >= rows())
+	    return 0.0;
+
+	int pos = find(ePrimary, eSecondary);
+
+	if (pos == Encoding.UNKNOWN)
+	    return 0.0;
+
+	return values[pos];
+    }
+
+    public double getCount(E primary, F secondary) {
+	int ePrimary = primaryEncoding.lookup(primary);
+	int eSecondary = secondaryEncoding.lookup(secondary);
+
+	if (ePrimary == Encoding.UNKNOWN || eSecondary == Encoding.UNKNOWN)
+	    return 0.0;
+
+	return getEncodedCount(ePrimary, eSecondary);
+    }
+
+    public F argMax(E primary) {
+	int ePrimary = primaryEncoding.lookup(primary);
+
+	if (ePrimary == Encoding.UNKNOWN || ePrimary >= rows() || rowOffsets[ePrimary] == rowOffsets[ePrimary+1])
+	    return null;
+
+	int arg = rowOffsets[ePrimary];
+	for (int pos = arg + 1; pos < rowOffsets[ePrimary+1]; pos++)
+	    if (values[pos] > values[arg])
+		arg = pos;
+
+	return secondaryEncoding.decode(columns[arg]);
+    }
+
+    public Set<E> keySet() {
+	return primaryEncoding.keySet();
+    }
+
+    public int size() {
+	return primaryEncoding.size();
+    }
+
+    public boolean isEmpty() {
+	return (size() == 0);
+    }
+
+    public CompactCounterMap(double[] values, int[] columns, int[] rowOffsets, Encoding<E> primaryEncoding, Encoding<F> secondaryEncoding) {
+	this.values = values;
+	this.columns = columns;
+	this.rowOffsets = rowOffsets;
+	this.primaryEncoding = primaryEncoding;
+	this.secondaryEncoding = secondaryEncoding;
+    }
+}
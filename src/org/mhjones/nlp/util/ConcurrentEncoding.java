@@ -0,0 +1,155 @@
+package org.mhjones.nlp.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Encoding that can be shared between threads. Known keys are looked up without
+// locking; new keys take one of a set of striped locks and get the next id from
+// an atomic counter. The decoder is a spine of fixed-size chunks so that growing
+// it never copies (and so never loses) entries written by other threads. size()
+// only moves past an id once that id and every id below it can be decoded.
+public class ConcurrentEncoding<E> extends Encoding<E> {
+    static final int CHUNK_BITS = 10;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    ConcurrentHashMap<E,Integer> concurrentEncoder;
+    AtomicInteger nextKey;
+    AtomicInteger published; // every id below this is stored
+    volatile E[][] chunks;
+    transient Object[] locks;
+
+    public int encode(E key) {
+	Integer eKey = concurrentEncoder.get(key);
+	if (eKey != null) {
+	    if (Metrics.ENABLED) Metrics.encodeHits.increment();
+	    return eKey;
+	}
+
+	synchronized (lockFor(key)) {
+	    eKey = concurrentEncoder.get(key);
+	    if (eKey != null) {
+		if (Metrics.ENABLED) Metrics.encodeHits.increment();
+		return eKey;
+	    }
+
+	    if (Metrics.ENABLED) Metrics.encodeMisses.increment();
+
+	    E cKey = interner.intern(key);
+	    int newKey = nextKey.getAndIncrement();
+
+	    // publish the decoding before the encoding, so any thread that
+	    // can see the id can also decode it
+	    store(newKey, cKey);
+	    concurrentEncoder.put(cKey, newKey);
+	    publish(newKey);
+
+	    return newKey;
+	}
+    }
+
+    public int lookup(E key) {
+	Integer eKey = concurrentEncoder.get(key);
+	if (eKey == null)
+	    return UNKNOWN;
+
+	return eKey;
+    }
+
+    // Ids are handed out in order but may be stored out of order by threads on
+    // different stripes; wait for the ids below eKey before publishing it. The
+    // threads holding those ids are never waiting on this one.
+    protected void publish(int eKey) {
+	while (!published.compareAndSet(eKey, eKey + 1))
+	    Thread.yield();
+    }
+
+    protected Object lockFor(E key) {
+	int h = key.hashCode();
+	h ^= (h >>> 16);
+	return locks[h & (locks.length - 1)];
+    }
+
+    protected void store(int eKey, E cKey) {
+	int chunk = eKey >>> CHUNK_BITS;
+	E[][] spine = chunks;
+
+	if (chunk >= spine.length || spine[chunk] == null) {
+	    synchronized (this) {
+		spine = chunks;
+
+		if (chunk >= spine.length) {
+		    E[][] newSpine = (E[][]) new Object[Math.max(spine.length*2, chunk+1)][];
+		    System.arraycopy(spine, 0, newSpine, 0, spine.length);
+		    spine = newSpine;
+		}
+
+		if (spine[chunk] == null)
+		    spine[chunk] = (E[]) new Object[CHUNK_SIZE];
+
+		chunks = spine;
+	    }
+	}
+
+	spine[chunk][eKey & CHUNK_MASK] = cKey;
+    }
+
+    public E decode(int eKey) {
+	return chunks[eKey >>> CHUNK_BITS][eKey & CHUNK_MASK];
+    }
+
+    public boolean containsKey(E key) {
+	return concurrentEncoder.containsKey(key);
+    }
+
+    public Set<E> keySet() {
+	return concurrentEncoder.keySet();
+    }
+
+    // Number of published ids; every id below this can be decoded
+    public int size() {
+	return published.get();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+	in.defaultReadObject();
+	locks = newLocks(Runtime.getRuntime().availableProcessors());
+    }
+
+    static Object[] newLocks(int concurrencyLevel) {
+	int stripes = 1;
+	while (stripes < 4*concurrencyLevel) stripes *= 2;
+
+	Object[] locks = new Object[stripes];
+	for (int i = 0; i < stripes; i++) locks[i] = new Object();
+
+	return locks;
+    }
+
+    // interner must be safe for concurrent use, like ConcurrentInterner or WeakInterner
+    public ConcurrentEncoding(int defaultSize, int concurrencyLevel, Interner<E> interner) {
+	super(interner, null, null);
+
+	concurrentEncoder = new ConcurrentHashMap<E,Integer>(defaultSize, 0.75f, concurrencyLevel);
+	encoder = concurrentEncoder;
+	nextKey = new AtomicInteger(0);
+	published = new AtomicInteger(0);
+	chunks = (E[][]) new Object[Math.max(1, (defaultSize + CHUNK_MASK) >>> CHUNK_BITS)][];
+	locks = newLocks(concurrencyLevel);
+    }
+
+    public ConcurrentEncoding(int defaultSize, int concurrencyLevel) {
+	this(defaultSize, concurrencyLevel, new ConcurrentInterner<E>());
+    }
+
+    public ConcurrentEncoding(int defaultSize) {
+	this(defaultSize, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ConcurrentEncoding() {
+	this(128);
+    }
+}
@@ -0,0 +1,21 @@
+package org.mhjones.nlp.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public class ConcurrentInterner<E> extends Interner<E> {
+    public E intern(E item) {
+	E cItem = canonicalMap.get(item);
+
+	if (cItem == null) {
+	    cItem = ((ConcurrentMap<E,E>) canonicalMap).putIfAbsent(item, item);
+	    if (cItem == null) cItem = item;
+	}
+
+	return cItem;
+    }
+
+    public ConcurrentInterner() {
+	super(new ConcurrentHashMap<E,E>());
+    }
+}
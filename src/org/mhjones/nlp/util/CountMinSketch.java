@@ -0,0 +1,285 @@
+package org.mhjones.nlp.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Approximate counter in fixed memory: depth rows of width counters, each key
+// adding to one counter per row and reading back the smallest. For a sketch
+// sized by (epsilon, delta), every estimate is at least the true count and, with
+// probability at least 1 - delta, at most true count + epsilon * totalCount().
+// Conservative update only raises the counters that hold the minimum, which
+// tightens estimates but rules out negative increments.
+//
+// Keys are hashed with MurmurHash, so sketches built with the same width and
+// depth on different threads or processes can be merged. Encoded ids are decoded
+// through the attached encoding and hashed as keys, so counting a key or its id
+// is the same. With topK > 0 the sketch also keeps the k keys with the highest
+// estimates seen so far as heavy-hitter candidates.
+public class CountMinSketch<E> implements Serializable {
+    static final int SEED = 0x5eed;
+
+    public Encoding<E> encoding;
+
+    int width;
+    int depth;
+    int mask;
+    boolean conservative;
+    double[] table; // row-major, depth x width
+    double total;
+
+    // Min-heap of the top-k candidates by estimate, with each key's heap position
+    int topK;
+    int candidates;
+    E[] heapKeys;
+    double[] heapCounts;
+    Map<E, Integer> heapPositions;
+
+    // Width for additive error epsilon * total, rounded up to a power of two
+    public static int width(double epsilon) {
+	if (!(epsilon > 0.0 && epsilon < 1.0))
+	    throw new IllegalArgumentException("epsilon must be in (0, 1): " + epsilon);
+
+	int width = (int) Math.ceil(Math.E / epsilon);
+	return Integer.highestOneBit(width - 1) << 1;
+    }
+
+    // Rows for failure probability delta
+    public static int depth(double delta) {
+	if (!(delta > 0.0 && delta < 1.0))
+	    throw new IllegalArgumentException("delta must be in (0, 1): " + delta);
+
+	return Math.max(1, (int) Math.ceil(Math.log(1.0 / delta)));
+    }
+
+    public int width() {
+	return width;
+    }
+
+    public int depth() {
+	return depth;
+    }
+
+    public double totalCount() {
+	return total;
+    }
+
+    // Row i uses slot h1 + i*h2: two hashes give depth independent-enough slots
+    protected int slot(int h1, int h2, int row) {
+	return row*width + ((h1 + row*h2) & mask);
+    }
+
+    protected static int secondHash(int h1) {
+	return MurmurHash.hash(h1, SEED) | 1;
+    }
+
+    public double getCount(E key) {
+	int h1 = MurmurHash.hash(key, SEED);
+	return estimate(h1, secondHash(h1));
+    }
+
+    protected double estimate(int h1, int h2) {
+	double min = table[slot(h1, h2, 0)];
+	for (int row = 1; row < depth; row++)
+	    min = Math.min(min, table[slot(h1, h2, row)]);
+	return min;
+    }
+
+    public void incrementCount(E key) {
+	incrementCount(key, 1.0);
+    }
+
+    public void incrementCount(E key, double val) {
+	if (val < 0.0)
+	    throw new IllegalArgumentException("Counts must not decrease: " + val);
+
+	int h1 = MurmurHash.hash(key, SEED);
+	int h2 = secondHash(h1);
+
+	if (conservative) {
+	    double target = estimate(h1, h2) + val;
+	    for (int row = 0; row < depth; row++) {
+		int slot = slot(h1, h2, row);
+		if (table[slot] < target) table[slot] = target;
+	    }
+	} else {
+	    for (int row = 0; row < depth; row++)
+		table[slot(h1, h2, row)] += val;
+	}
+
+	total += val;
+
+	if (topK > 0)
+	    offer(key, estimate(h1, h2));
+    }
+
+    protected E decode(int eKey) {
+	if (encoding == null)
+	    throw new IllegalStateException("Sketch has no encoding for encoded keys");
+
+	E key = encoding.decode(eKey);
+	if (key == null)
+	    throw new IllegalArgumentException("Encoded key is not in the encoding: " + eKey);
+
+	return key;
+    }
+
+    public double getEncodedCount(int eKey) {
+	return getCount(decode(eKey));
+    }
+
+    public void incrementEncodedCount(int eKey, double val) {
+	incrementCount(decode(eKey), val);
+    }
+
+    // Adds every count in other, which must have the same width and depth. Merged
+    // estimates keep the error bounds of a sketch over the combined data.
+    public void incrementAll(CountMinSketch<E> other) {
+	if (other.width != width || other.depth != depth)
+	    throw new IllegalArgumentException("Sketches must have the same width and depth to be merged");
+
+	for (int i = 0; i < table.length; i++)
+	    table[i] += other.table[i];
+	total += other.total;
+
+	if (topK > 0) {
+	    Set<E> keys = new LinkedHashSet<E>();
+	    for (int i = 0; i < candidates; i++) keys.add(heapKeys[i]);
+	    for (int i = 0; i < other.candidates; i++) keys.add(other.heapKeys[i]);
+
+	    clearCandidates();
+	    for (E key : keys)
+		offer(key, getCount(key));
+	}
+    }
+
+    // The top-k candidates, highest estimate first
+    public List<Pair<E, Double>> topK() {
+	Integer[] order = new Integer[candidates];
+	for (int i = 0; i < candidates; i++) order[i] = i;
+
+	Arrays.sort(order, new java.util.Comparator<Integer>() {
+		public int compare(Integer a, Integer b) {
+		    return Double.compare(heapCounts[b], heapCounts[a]);
+		}
+	    });
+
+	List<Pair<E, Double>> ret = new ArrayList<Pair<E, Double>>();
+	for (Integer i : order)
+	    ret.add(new Pair<E, Double>(heapKeys[i], heapCounts[i]));
+	return ret;
+    }
+
+    // Candidates whose estimate is at least fraction * totalCount()
+    public List<Pair<E, Double>> heavyHitters(double fraction) {
+	List<Pair<E, Double>> ret = new ArrayList<Pair<E, Double>>();
+
+	for (Pair<E, Double> candidate : topK())
+	    if (candidate.getSecond() >= fraction * total)
+		ret.add(candidate);
+
+	return ret;
+    }
+
+    protected void clearCandidates() {
+	Arrays.fill(heapKeys, null);
+	candidates = 0;
+	heapPositions.clear();
+    }
+
+    // Estimates only grow, so a candidate already in the heap only sifts down
+    protected void offer(E key, double count) {
+	Integer pos = heapPositions.get(key);
+
+	if (pos != null) {
+	    heapCounts[pos] = count;
+	    siftDown(pos);
+	} else if (candidates < topK) {
+	    heapKeys[candidates] = key;
+	    heapCounts[candidates] = count;
+	    heapPositions.put(key, candidates);
+	    siftUp(candidates++);
+	} else if (count > heapCounts[0]) {
+	    heapPositions.remove(heapKeys[0]);
+	    heapKeys[0] = key;
+	    heapCounts[0] = count;
+	    heapPositions.put(key, 0);
+	    siftDown(0);
+	}
+    }
+
+    protected void siftUp(int pos) {
+	while (pos > 0) {
+	    int parent = (pos - 1) >>> 1;
+	    if (heapCounts[parent] <= heapCounts[pos])
+		return;
+	    swap(pos, parent);
+	    pos = parent;
+	}
+    }
+
+    protected void siftDown(int pos) {
+	while (true) {
+	    int child = 2*pos + 1;
+	    if (child >= candidates)
+		return;
+	    if (child + 1 < candidates && heapCounts[child+1] < heapCounts[child])
+		child++;
+	    if (heapCounts[pos] <= heapCounts[child])
+		return;
+	    swap(pos, child);
+	    pos = child;
+	}
+    }
+
+    protected void swap(int i, int j) {
+	E key = heapKeys[i];
+	heapKeys[i] = heapKeys[j];
+	heapKeys[j] = key;
+
+	double count = heapCounts[i];
+	heapCounts[i] = heapCounts[j];
+	heapCounts[j] = count;
+
+	heapPositions.put(heapKeys[i], i);
+	heapPositions.put(heapKeys[j], j);
+    }
+
+    public CountMinSketch(int width, int depth, int topK, boolean conservative, Encoding<E> encoding) {
+	if (width < 1 || Integer.bitCount(width) != 1)
+	    throw new IllegalArgumentException("Width must be a power of two: " + width);
+	if (depth < 1)
+	    throw new IllegalArgumentException("Depth must be positive: " + depth);
+
+	this.width = width;
+	this.depth = depth;
+	this.mask = width - 1;
+	this.table = new double[width * depth];
+	this.conservative = conservative;
+	this.encoding = encoding;
+	this.topK = topK;
+
+	if (topK > 0) {
+	    heapKeys = (E[]) new Object[topK];
+	    heapCounts = new double[topK];
+	    heapPositions = new HashMap<E, Integer>(2*topK);
+	}
+    }
+
+    public CountMinSketch(double epsilon, double delta, int topK, boolean conservative, Encoding<E> encoding) {
+	this(width(epsilon), depth(delta), topK, conservative, encoding);
+    }
+
+    public CountMinSketch(double epsilon, double delta, int topK) {
+	this(epsilon, delta, topK, false, null);
+    }
+
+    public CountMinSketch(double epsilon, double delta) {
+	this(epsilon, delta, 0);
+    }
+}
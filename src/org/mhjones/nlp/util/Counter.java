@@ -12,13 +12,19 @@ public class Counter<E> implements Serializable {
 
     boolean logCounter;
     double defaultValue;
+    double total; // sum of the counts, kept up to date by incrementCount
 
     protected int encode(E key) {
 	int eKey = encoding.encode(key);
 
+	if (eKey == Encoding.UNKNOWN)
+	    throw new IllegalArgumentException("Key is not in frozen encoding: " + key);
+
 	// resize values
-	if (eKey >= values.length)
-	    values = DoubleArrays.resizeArray(values, values.length*2);
+	if (eKey >= values.length) {
+	    if (Metrics.ENABLED) Metrics.counterResizes.increment();
+	    values = DoubleArrays.resizeArray(values, Math.max(values.length*2, eKey+1));
+	}
 
 	return eKey;
     }
@@ -39,20 +45,42 @@ public class Counter<E> implements Serializable {
 	return (size() == 0);
     }
     
+    // Reads never add key to the encoding
     public double getCount(E key) {
-	return values[encode(key)];
+	int eKey = encoding.lookup(key);
+
+	if (eKey == Encoding.UNKNOWN || eKey >= values.length)
+	    return defaultValue;
+
+	return values[eKey];
     }
     
     public void incrementCount(E key) {
-	values[encode(key)] += 1.0;
+	incrementCount(key, 1.0);
     }
 
     public void incrementCount(E key, double val) {
-	values[encode(key)] += val;
+	// encode first: it may replace values
+	int eKey = encode(key);
+	values[eKey] += val;
+	total += val;
+    }
+
+    // P(key) from the raw counts, without normalizing in place; 0 if there are none
+    public double getProbability(E key) {
+	if (total == 0.0)
+	    return 0.0;
+
+	return getCount(key) / total;
+    }
+
+    public double getLogProbability(E key) {
+	return Math.log(getProbability(key));
     }
 
     // This is really transforming a set of counts into a distribution of counts,
     // so perhaps this should at least lock the values or somehow signify that it's not for counting anymore?
+    // getProbability reads the same distribution without overwriting the counts.
     public void normalize() {
 	double total = totalCount();
 	if (logCounter) {
@@ -60,12 +88,15 @@ public class Counter<E> implements Serializable {
 	    DoubleArrays.inPlaceAdd(values, -Math.log(total), 0, encoding.size());
 	}
 	else DoubleArrays.inPlaceDivide(values, total, 0, encoding.size());
+
+	this.total = logCounter ? 0.0 : totalCount();
     }
 
     E argMax() {
 	return decode(DoubleArrays.argMax(values, 0, encoding.size()));
     }
 
+    // Sums the values, so it also counts values written directly
     double totalCount() {
 	return DoubleArrays.sum(values, 0, encoding.size());
     }
@@ -83,8 +114,10 @@ public class Counter<E> implements Serializable {
 	this.values = DoubleArrays.constantArray(encoding.size(), 0.0);
 	this.encoding = encoding;
 
-	for (int i = 0; i < used; i++)
+	for (int i = 0; i < used; i++) {
 	    this.values[index[i]] = values[i];
+	    total += values[i];
+	}
     }
 
     public Counter(int keySetSize, boolean logCounter, Encoding<E> encoding) {
@@ -1,14 +1,13 @@
 package org.mhjones.nlp.util;
 
 import java.io.Serializable;
-import java.lang.reflect.Array;
 import java.lang.System;
-import java.util.IdentityHashMap;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.mhjones.nlp.math.DoubleArrays;
 import org.mhjones.nlp.math.IntegerArrays;
-import org.mhjones.nlp.math.DoubleArrays2D;
-import org.mhjones.nlp.math.IntegerArrays2D;
 
 import java.util.Set;
 
@@ -17,26 +16,51 @@ public class CounterMap<E,F> implements Serializable {
     public Encoding<F> secondaryEncoding;
 
     public double[][] values;
+    public double[] rowTotals; // sum of each row's values, kept up to date by incrementCount
+    public boolean[] logRows;  // rows holding log probabilities (see logNormalize), whose total is their mass, 1
 
     public int[][] secondaryIdx; // Contains the encoded secondary for each location (tells you what is in position 1)
-    public IdentityHashMap<Integer,Integer>[] secondaryRevIdx; // Contains the location of the specified encoded secondary (tells you where item 1 is)
+    public IntegerMap[] secondaryRevIdx; // Contains the location of the specified encoded secondary (tells you where item 1 is)
+
+    // Rows with no capacity share these, so an unused row costs only its slots in
+    // the arrays above; the first increment gives a row its own (see incrementEncodedCount)
+    static final double[] EMPTY_VALUES = new double[0];
+    static final int[] EMPTY_INDEX = new int[0];
+    static final IntegerMap EMPTY_REV_IDX = new IntegerMap(0);
+
+    void emptyRows(int from, int to) {
+	for (int i = from; i < to; i++) {
+	    values[i] = EMPTY_VALUES;
+	    secondaryIdx[i] = EMPTY_INDEX;
+	    secondaryRevIdx[i] = EMPTY_REV_IDX;
+	}
+    }
 
     protected int encodePrimary(E key) {
 	int eKey = primaryEncoding.encode(key);
 
+	if (eKey == Encoding.UNKNOWN)
+	    throw new IllegalArgumentException("Key is not in frozen encoding: " + key);
+
+	ensurePrimary(eKey);
+
+	return eKey;
+    }
+
+    protected void ensurePrimary(int eKey) {
 	// resize values
 	if (eKey >= values.length) {
-	    int newSize = values.length*2;
-	    values = DoubleArrays2D.resizeArray(values, newSize, 1, 0.0);
-	    secondaryIdx = IntegerArrays2D.resizeArray(secondaryIdx, newSize, 1, 1);
-
-	    IdentityHashMap<Integer,Integer>[] temp = (IdentityHashMap<Integer,Integer>[]) Array.newInstance(IdentityHashMap.class, newSize);
-	    System.arraycopy(secondaryRevIdx, 0, temp, 0, newSize/2);
-	    secondaryRevIdx = temp;
-	    for (int i = newSize/2; i < newSize; i++) secondaryRevIdx[i] = new IdentityHashMap<Integer,Integer>();
+	    if (Metrics.ENABLED) Metrics.counterMapResizes.increment();
+
+	    int oldSize = values.length;
+	    int newSize = Math.max(oldSize*2, eKey+1);
+	    values = Arrays.copyOf(values, newSize);
+	    rowTotals = DoubleArrays.resizeArray(rowTotals, newSize);
+	    logRows = Arrays.copyOf(logRows, newSize);
+	    secondaryIdx = Arrays.copyOf(secondaryIdx, newSize);
+	    secondaryRevIdx = Arrays.copyOf(secondaryRevIdx, newSize);
+	    emptyRows(oldSize, newSize);
 	}
-
-	return eKey;
     }
 
     protected E decodePrimary(int eKey) {
@@ -46,6 +70,9 @@ public class CounterMap<E,F> implements Serializable {
     protected int encodeSecondary(F key) {
 	int eKey = secondaryEncoding.encode(key);
 
+	if (eKey == Encoding.UNKNOWN)
+	    throw new IllegalArgumentException("Key is not in frozen encoding: " + key);
+
 	// resizing occurs on access to exploit sparsity
 
 	return eKey;
@@ -67,10 +94,20 @@ public class CounterMap<E,F> implements Serializable {
 	return (size() == 0);
     }
 
+    // Looks up an encoded primary without adding it; UNKNOWN if it has no row
+    protected int lookupPrimary(E key) {
+	int eKey = primaryEncoding.lookup(key);
+
+	if (eKey >= values.length)
+	    return Encoding.UNKNOWN;
+
+	return eKey;
+    }
+
     public Counter<F> getCounter(E primary) {
-	int ePrimary = encodePrimary(primary);
+	int ePrimary = lookupPrimary(primary);
 	
-	if (DoubleArrays.sum(values[ePrimary]) == 0) {
+	if (ePrimary == Encoding.UNKNOWN || DoubleArrays.sum(values[ePrimary]) == 0) {
 	    Counter<F> counter = new Counter(secondaryEncoding);
 	    counter.normalize();
 	    return counter;
@@ -79,14 +116,68 @@ public class CounterMap<E,F> implements Serializable {
 	return new Counter<F>(values[ePrimary], secondaryIdx[ePrimary], secondaryRevIdx[ePrimary].size(), secondaryEncoding);
     }
 
+    // Copy of primary's row costing only its stored entries rather than the whole
+    // secondary vocabulary; empty for an unknown row
+    public SparseCounter<F> getSparseCounter(E primary) {
+	int ePrimary = lookupPrimary(primary);
+
+	if (ePrimary == Encoding.UNKNOWN)
+	    return new SparseCounter<F>(secondaryEncoding);
+
+	return new SparseCounter<F>(values[ePrimary], secondaryIdx[ePrimary], secondaryRevIdx[ePrimary].size(), secondaryEncoding);
+    }
+
     public double getCount(E primary, F secondary) {
-	int ePrimary = encodePrimary(primary);
-	int eSecondary = encodeSecondary(secondary);
+	int ePrimary = lookupPrimary(primary);
+	int eSecondary = secondaryEncoding.lookup(secondary);
+
+	if (ePrimary == Encoding.UNKNOWN || eSecondary == Encoding.UNKNOWN)
+	    return 0.0;
+
+	int idx = secondaryRevIdx[ePrimary].get(eSecondary);
+
+	if (idx == IntegerMap.MISSING)
+	    return 0.0;
+
+	return values[ePrimary][idx];
+    }
 
-        if (secondaryRevIdx[ePrimary].get(eSecondary) == null)
+    // Sum of the counts in primary's row; 0 for an unknown row
+    public double getRowTotal(E primary) {
+	int ePrimary = lookupPrimary(primary);
+
+	if (ePrimary == Encoding.UNKNOWN)
 	    return 0.0;
 
-	return values[ePrimary][secondaryRevIdx[ePrimary].get(eSecondary)];
+	return rowTotals[ePrimary];
+    }
+
+    // P(secondary | primary) from the raw counts, without normalizing in place;
+    // 0 for an unknown or empty row. A log row already holds log probabilities.
+    public double getProbability(E primary, F secondary) {
+	int ePrimary = lookupPrimary(primary);
+
+	if (ePrimary != Encoding.UNKNOWN && logRows[ePrimary])
+	    return Math.exp(getLogProbability(primary, secondary));
+
+	double total = getRowTotal(primary);
+
+	if (total == 0.0)
+	    return 0.0;
+
+	return getCount(primary, secondary) / total;
+    }
+
+    public double getLogProbability(E primary, F secondary) {
+	int ePrimary = lookupPrimary(primary);
+
+	if (ePrimary == Encoding.UNKNOWN || !logRows[ePrimary])
+	    return Math.log(getProbability(primary, secondary));
+
+	int eSecondary = secondaryEncoding.lookup(secondary);
+	int idx = (eSecondary == Encoding.UNKNOWN) ? IntegerMap.MISSING : secondaryRevIdx[ePrimary].get(eSecondary);
+
+	return (idx == IntegerMap.MISSING) ? Double.NEGATIVE_INFINITY : values[ePrimary][idx];
     }
 
     public void incrementCount(E primary, F secondary) {
@@ -94,20 +185,26 @@ public class CounterMap<E,F> implements Serializable {
     }
 
     public void incrementCount(E primary, F secondary, double val) {
-	int ePrimary = encodePrimary(primary);
-	int eSecondary = encodeSecondary(secondary);
+	incrementEncodedCount(encodePrimary(primary), encodeSecondary(secondary), val);
+    }
+
+    public void incrementEncodedCount(int ePrimary, int eSecondary, double val) {
+	ensurePrimary(ePrimary);
 
-        Integer idx = secondaryRevIdx[ePrimary].get(eSecondary);
+	int idx = secondaryRevIdx[ePrimary].get(eSecondary);
 
 	// Is it not in the sparse array?
-	if (idx == null) {
+	if (idx == IntegerMap.MISSING) {
 	    idx = secondaryRevIdx[ePrimary].size();
 	    
 	    // Do we need to resize the sparse array?
 	    if (idx == values[ePrimary].length) {
 		// Resize sparse array & indexes
-		values[ePrimary] = DoubleArrays.resizeArray(values[ePrimary], values[ePrimary].length*2);
-		secondaryIdx[ePrimary] = IntegerArrays.resizeArray(secondaryIdx[ePrimary], secondaryIdx[ePrimary].length*2);
+		if (Metrics.ENABLED) Metrics.rowGrowths.increment();
+		int newLength = Math.max(1, values[ePrimary].length*2);
+		if (idx == 0) secondaryRevIdx[ePrimary] = new IntegerMap(); // may be shared while empty
+		values[ePrimary] = DoubleArrays.resizeArray(values[ePrimary], newLength);
+		secondaryIdx[ePrimary] = IntegerArrays.resizeArray(secondaryIdx[ePrimary], newLength);
 	    }
 
 	    secondaryRevIdx[ePrimary].put(eSecondary, idx);
@@ -115,17 +212,232 @@ public class CounterMap<E,F> implements Serializable {
 	}
 
 	values[ePrimary][idx] += val;
+	rowTotals[ePrimary] += val;
     }
 
-    public void normalize() {
-	for (int primary = 0; primary < primaryEncoding.size(); primary++) {
-	    double totalCount = DoubleArrays.sum(values[primary], 0, secondaryRevIdx[primary].size());
-	    DoubleArrays.inPlaceDivide(values[primary], totalCount, 0, secondaryRevIdx[primary].size());
+    // Adds every count in other, which must share both encodings with this map.
+    // Rows are merged in primary order and positions in row order, so merging
+    // partial counts in sequence reproduces the layout of counting them directly.
+    public void incrementAll(CounterMap<E,F> other) {
+	if (other.primaryEncoding != primaryEncoding || other.secondaryEncoding != secondaryEncoding)
+	    throw new IllegalArgumentException("CounterMaps must share encodings to be merged");
+
+	int primaries = Math.min(other.values.length, primaryEncoding.size());
+	for (int primary = 0; primary < primaries; primary++) {
+	    int used = other.secondaryRevIdx[primary].size();
+
+	    for (int pos = 0; pos < used; pos++)
+		incrementEncodedCount(primary, other.secondaryIdx[primary][pos], other.values[primary][pos]);
 	}
     }
 
+    // Adds rows primaries[0, count) of other, which must share both encodings with
+    // this map, skipping the scan over rows other never used. A row's positions
+    // depend only on the order its own increments arrive, so the result matches
+    // incrementAll(other) whatever the order of primaries.
+    public void incrementRows(CounterMap<E,F> other, int[] primaries, int count) {
+	if (other.primaryEncoding != primaryEncoding || other.secondaryEncoding != secondaryEncoding)
+	    throw new IllegalArgumentException("CounterMaps must share encodings to be merged");
+
+	for (int i = 0; i < count; i++) {
+	    int primary = primaries[i];
+	    int used = other.secondaryRevIdx[primary].size();
+
+	    for (int pos = 0; pos < used; pos++)
+		incrementEncodedCount(primary, other.secondaryIdx[primary][pos], other.values[primary][pos]);
+	}
+    }
+
+    // Empties a row but keeps its arrays, so a scratch map can be reused
+    public void clearRow(int primary) {
+	if (primary >= values.length || values[primary].length == 0)
+	    return;
+
+	Arrays.fill(values[primary], 0, secondaryRevIdx[primary].size(), 0.0);
+	secondaryRevIdx[primary].clear();
+	rowTotals[primary] = 0.0;
+	logRows[primary] = false;
+    }
+
+    // Swaps both encodings for frozen copies: reads of unseen keys stay allocation
+    // free, and counting keys outside the frozen vocabularies is an error
+    public void freeze() {
+	primaryEncoding = primaryEncoding.freeze();
+	secondaryEncoding = secondaryEncoding.freeze();
+    }
+
+    // Compressed sparse row copy of the current counts, each row sorted by encoded
+    // secondary, sharing this map's encodings
+    public CompactCounterMap<E,F> compact() {
+	int rows = primaryEncoding.size();
+	int stored = Math.min(rows, values.length);
+	int[] rowOffsets = new int[rows + 1];
+	int widest = 0;
+
+	for (int primary = 0; primary < rows; primary++) {
+	    int used = (primary < stored) ? secondaryRevIdx[primary].size() : 0;
+	    rowOffsets[primary+1] = rowOffsets[primary] + used;
+	    widest = Math.max(widest, used);
+	}
+
+	double[] compactValues = new double[rowOffsets[rows]];
+	int[] columns = new int[rowOffsets[rows]];
+	long[] order = new long[widest];
+
+	for (int primary = 0; primary < stored; primary++) {
+	    int used = secondaryRevIdx[primary].size();
+
+	    // sort positions by secondary, packed as (secondary, position)
+	    for (int pos = 0; pos < used; pos++)
+		order[pos] = ((long) secondaryIdx[primary][pos] << 32) | pos;
+	    Arrays.sort(order, 0, used);
+
+	    for (int i = 0; i < used; i++) {
+		columns[rowOffsets[primary] + i] = (int) (order[i] >>> 32);
+		compactValues[rowOffsets[primary] + i] = values[primary][(int) order[i]];
+	    }
+	}
+
+	return new CompactCounterMap<E,F>(compactValues, columns, rowOffsets, primaryEncoding, secondaryEncoding);
+    }
+
+    static final int NORMALIZE = 0;
+    static final int LOG_NORMALIZE = 1;
+    static final int SMOOTH = 2;
+    static final int PRUNE = 3;
+
+    // Rows per task below which RowTask stops splitting
+    static final int ROW_GRAIN = 256;
+
+    // Applies op to one row, recomputing its total as it goes. Normalizing sums
+    // the row itself rather than trusting rowTotals, since values is public and
+    // may have been written directly. A log-normalized row is marked in logRows
+    // and its total is its probability mass, 1, not the sum of the logs.
+    void transformRow(int op, int primary, double argument) {
+	double[] row = values[primary];
+	int used = secondaryRevIdx[primary].size();
+	double total = 0.0;
+
+	switch (op) {
+	case NORMALIZE:
+	    double reciprocal = 1.0 / DoubleArrays.sum(row, 0, used);
+	    for (int pos = 0; pos < used; pos++) total += (row[pos] *= reciprocal);
+	    break;
+	case LOG_NORMALIZE:
+	    if (used == 0)
+		break;
+	    double logTotal = Math.log(DoubleArrays.sum(row, 0, used));
+	    for (int pos = 0; pos < used; pos++) row[pos] = Math.log(row[pos]) - logTotal;
+	    total = 1.0;
+	    logRows[primary] = true;
+	    break;
+	case SMOOTH:
+	    for (int pos = 0; pos < used; pos++) total += (row[pos] += argument);
+	    break;
+	case PRUNE:
+	    int[] index = secondaryIdx[primary];
+	    int kept = 0;
+	    for (int pos = 0; pos < used; pos++) {
+		if (row[pos] >= argument) {
+		    row[kept] = row[pos];
+		    index[kept++] = index[pos];
+		    total += row[pos];
+		}
+	    }
+	    if (kept < used) {
+		for (int pos = kept; pos < used; pos++) row[pos] = 0.0;
+		IntegerMap revIdx = new IntegerMap(kept);
+		for (int pos = 0; pos < kept; pos++) revIdx.put(index[pos], pos);
+		secondaryRevIdx[primary] = revIdx;
+	    }
+	    break;
+	}
+
+	rowTotals[primary] = total;
+    }
+
+    protected class RowTask extends RecursiveAction {
+	final int op;
+	final double argument;
+	final int start;
+	final int end;
+
+	protected void compute() {
+	    if (end - start <= ROW_GRAIN) {
+		for (int primary = start; primary < end; primary++) transformRow(op, primary, argument);
+		return;
+	    }
+
+	    int middle = (start + end) >>> 1;
+	    invokeAll(new RowTask(op, argument, start, middle),
+		      new RowTask(op, argument, middle, end));
+	}
+
+	RowTask(int op, double argument, int start, int end) {
+	    this.op = op;
+	    this.argument = argument;
+	    this.start = start;
+	    this.end = end;
+	}
+    }
+
+    // Runs op over every row, on pool if there is one. Rows are independent and
+    // each is transformed exactly as the sequential loop would, so the result
+    // does not depend on the pool or on how the rows are split.
+    void transformRows(int op, double argument, ForkJoinPool pool) {
+	int primaries = Math.min(values.length, primaryEncoding.size());
+
+	if (pool == null || primaries <= ROW_GRAIN) {
+	    for (int primary = 0; primary < primaries; primary++) transformRow(op, primary, argument);
+	    return;
+	}
+
+	pool.invoke(new RowTask(op, argument, 0, primaries));
+    }
+
+    public void normalize() {
+	transformRows(NORMALIZE, 0.0, null);
+    }
+
+    public void normalize(ForkJoinPool pool) {
+	transformRows(NORMALIZE, 0.0, pool);
+    }
+
+    // Replaces each row's counts with their log probabilities and marks the rows in
+    // logRows; their totals become 1, the mass they describe
+    public void logNormalize() {
+	transformRows(LOG_NORMALIZE, 0.0, null);
+    }
+
+    public void logNormalize(ForkJoinPool pool) {
+	transformRows(LOG_NORMALIZE, 0.0, pool);
+    }
+
+    // Adds alpha to every stored count; normalize() afterwards for add-alpha
+    // estimates over each row's observed secondaries
+    public void smooth(double alpha) {
+	transformRows(SMOOTH, alpha, null);
+    }
+
+    public void smooth(double alpha, ForkJoinPool pool) {
+	transformRows(SMOOTH, alpha, pool);
+    }
+
+    // Drops stored counts below threshold, keeping the order of the rest
+    public void prune(double threshold) {
+	transformRows(PRUNE, threshold, null);
+    }
+
+    public void prune(double threshold, ForkJoinPool pool) {
+	transformRows(PRUNE, threshold, pool);
+    }
+
     public F argMax(E primary) {
-	int ePrimary = encodePrimary(primary);
+	int ePrimary = lookupPrimary(primary);
+
+	if (ePrimary == Encoding.UNKNOWN || secondaryRevIdx[ePrimary].isEmpty())
+	    return null;
+
 	int argMaxIdx = DoubleArrays.argMax(values[ePrimary], 0, secondaryRevIdx[ePrimary].size());
 
 	return decodeSecondary(secondaryIdx[ePrimary][argMaxIdx]);
@@ -138,7 +450,7 @@ public class CounterMap<E,F> implements Serializable {
 	    ret += decodePrimary(primary) + " : ";
 	    ret += "[ ";
 	    for (int pos = 0; pos < secondaryRevIdx[primary].size(); pos++)
-		ret += decodeSecondary(secondaryRevIdx[primary].get(pos)) + " : " + values[primary][pos] + ", ";
+		ret += decodeSecondary(secondaryIdx[primary][pos]) + " : " + values[primary][pos] + ", ";
 	    ret += "]\n";
 	}
 
@@ -148,12 +460,17 @@ public class CounterMap<E,F> implements Serializable {
     public CounterMap(int primaryKeySetSize, int[] secondaryDistribution, Encoding<E> primaryEncoding, Encoding<F> secondaryEncoding) {
 	values = new double[primaryKeySetSize][];
 	secondaryIdx = new int[primaryKeySetSize][];
-	secondaryRevIdx = (IdentityHashMap<Integer, Integer>[]) Array.newInstance(IdentityHashMap.class,primaryKeySetSize);
+	rowTotals = new double[primaryKeySetSize];
+	logRows = new boolean[primaryKeySetSize];
+	secondaryRevIdx = new IntegerMap[primaryKeySetSize];
 
+	emptyRows(0, primaryKeySetSize);
 	for (int i = 0; i < primaryKeySetSize; i++) {
+	    if (secondaryDistribution[i] == 0)
+		continue;
 	    values[i] = new double[secondaryDistribution[i]];
 	    secondaryIdx[i] = new int[secondaryDistribution[i]];
-	    secondaryRevIdx[i] = new IdentityHashMap<Integer, Integer>();
+	    secondaryRevIdx[i] = new IntegerMap();
 	}
 
 	this.primaryEncoding = primaryEncoding;
@@ -168,8 +485,10 @@ public class CounterMap<E,F> implements Serializable {
 	this(primaryKeySetSize, secondaryKeySetSize, IntegerArrays.constantArray(primaryKeySetSize, secondaryKeySetSize));
     }
 
+    // Rows start empty and grow on demand, so neither a large (or hashed) primary
+    // nor secondary vocabulary costs anything per row before it is counted
     public CounterMap(Encoding<E> primaryEncoding, Encoding<F> secondaryEncoding) {
-	this(primaryEncoding.size(), IntegerArrays.constantArray(primaryEncoding.size(), secondaryEncoding.size()), primaryEncoding, secondaryEncoding);
+	this(primaryEncoding.size(), new int[primaryEncoding.size()], primaryEncoding, secondaryEncoding);
     }
 
     public CounterMap() {
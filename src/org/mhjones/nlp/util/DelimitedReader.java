@@ -0,0 +1,81 @@
+package org.mhjones.nlp.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Streams "label<delimiter>datum" lines as (datum, label) pairs, one line at a
+// time, so a corpus never has to fit on the heap. The delimiter is matched
+// literally (no regex); text after a second delimiter is ignored and blank lines
+// are skipped. I/O errors surface as IllegalStateException from hasNext/next.
+public class DelimitedReader implements Iterator<Pair<String, String>>, Closeable {
+    BufferedReader reader;
+    String delimiter;
+    Pair<String, String> next;
+    int lineNumber;
+
+    public boolean hasNext() {
+	if (next == null)
+	    next = readPair();
+	return next != null;
+    }
+
+    public Pair<String, String> next() {
+	if (!hasNext())
+	    throw new NoSuchElementException();
+
+	Pair<String, String> ret = next;
+	next = null;
+	return ret;
+    }
+
+    public void remove() {
+	throw new UnsupportedOperationException();
+    }
+
+    protected Pair<String, String> readPair() {
+	String line;
+
+	try {
+	    do {
+		line = reader.readLine();
+		lineNumber++;
+	    } while (line != null && line.length() == 0);
+	} catch (IOException e) {
+	    throw new IllegalStateException("Error reading line " + lineNumber, e);
+	}
+
+	if (line == null)
+	    return null;
+
+	int split = line.indexOf(delimiter);
+	if (split < 0)
+	    throw new IllegalArgumentException("No delimiter on line " + lineNumber + ": " + line);
+
+	int start = split + delimiter.length();
+	int end = line.indexOf(delimiter, start);
+	if (end < 0) end = line.length();
+
+	return new Pair<String, String>(line.substring(start, end), line.substring(0, split));
+    }
+
+    public void close() throws IOException {
+	reader.close();
+    }
+
+    public DelimitedReader(Reader reader, String delimiter) {
+	if (delimiter.length() == 0)
+	    throw new IllegalArgumentException("Delimiter must not be empty");
+
+	this.reader = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader(reader);
+	this.delimiter = delimiter;
+    }
+
+    public DelimitedReader(String filename, String delimiter) throws IOException {
+	this(new FileReader(filename), delimiter);
+    }
+}
@@ -0,0 +1,51 @@
+package org.mhjones.nlp.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Allocation and explicit release of direct (off-heap) buffers. Direct memory is
+// normally only returned when the collector finds the buffer unreachable; free()
+// releases it at once through the JDK's buffer cleaner where that is accessible,
+// and otherwise leaves it to the collector. A freed buffer must never be touched.
+class DirectMemory {
+    static final Object unsafe;
+    static final Method invokeCleaner;
+
+    static {
+	Object u = null;
+	Method m = null;
+
+	try {
+	    Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+	    Field field = unsafeClass.getDeclaredField("theUnsafe");
+	    field.setAccessible(true);
+	    u = field.get(null);
+	    m = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+	} catch (Exception e) {
+	    // pre-9 JDK or restricted runtime: buffers are released by the collector
+	    u = null;
+	    m = null;
+	}
+
+	unsafe = u;
+	invokeCleaner = m;
+    }
+
+    // Zeroed, in native byte order
+    static ByteBuffer allocate(int bytes) {
+	return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+
+    static void free(ByteBuffer buffer) {
+	if (invokeCleaner == null || buffer == null)
+	    return;
+
+	try {
+	    invokeCleaner.invoke(unsafe, buffer);
+	} catch (Exception e) {
+	    // left to the collector
+	}
+    }
+}
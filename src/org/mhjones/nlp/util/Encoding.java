@@ -1,20 +1,30 @@
 package org.mhjones.nlp.util;
 
 import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.IdentityHashMap;
 
 
 public class Encoding<E> implements Serializable {
+    // Returned by lookup (and by encode on a frozen encoding) for keys without an id
+    public static final int UNKNOWN = -1;
+
     Interner<E> interner;
     Map<E,Integer> encoder;
     E[] decoder;
 
     public int encode(E key) {
 	E cKey = interner.intern(key);
-	if (encoder.containsKey(cKey))
+	if (encoder.containsKey(cKey)) {
+	    if (Metrics.ENABLED) Metrics.encodeHits.increment();
 	    return encoder.get(cKey);
+	}
+
+	if (Metrics.ENABLED) Metrics.encodeMisses.increment();
 
 	int eKey = encoder.size();
 	encoder.put(cKey, eKey);
@@ -33,13 +43,63 @@ public class Encoding<E> implements Serializable {
 	return eKey;
     }
 
+    // Like encode, but never adds key: returns UNKNOWN instead
+    public int lookup(E key) {
+	E cKey = interner.canonical(key);
+	if (cKey == null)
+	    return UNKNOWN;
+
+	Integer eKey = encoder.get(cKey);
+	if (eKey == null)
+	    return UNKNOWN;
+
+	return eKey;
+    }
+
     public E decode(int eKey) {
 	return decoder[eKey];
     }
 
     public boolean containsKey(E key) {
-	E cKey = interner.intern(key);
-	return encoder.containsKey(cKey);
+	return (lookup(key) != UNKNOWN);
+    }
+
+    // A read-only view of the keys, for encodings that do not keep an encoder map
+    Set<E> decodedKeySet() {
+	return new AbstractSet<E>() {
+	    public int size() {
+		return Encoding.this.size();
+	    }
+
+	    public boolean contains(Object key) {
+		return (lookup((E) key) != UNKNOWN);
+	    }
+
+	    public Iterator<E> iterator() {
+		return new Iterator<E>() {
+		    int next = 0;
+
+		    public boolean hasNext() {
+			return (next < Encoding.this.size());
+		    }
+
+		    public E next() {
+			if (next >= Encoding.this.size()) throw new NoSuchElementException();
+			return decode(next++);
+		    }
+
+		    public void remove() {
+			throw new UnsupportedOperationException();
+		    }
+		};
+	    }
+	};
+    }
+
+    // A read-only encoding with the same ids: an immutable copy (or this encoding
+    // if it is already read-only)
+    public Encoding<E> freeze() {
+	return new FrozenEncoding<E>(this);
     }
 
     public Set<E> keySet() {
@@ -50,10 +110,20 @@ public class Encoding<E> implements Serializable {
 	return encoder.size();
     }
 
+    Encoding(Interner<E> interner, Map<E,Integer> encoder, E[] decoder) {
+	this.interner = interner;
+	this.encoder = encoder;
+	this.decoder = decoder;
+    }
+
+    // interner may be shared with other encodings, e.g. a WeakInterner, so that
+    // equal keys share one instance and keys no encoding holds can be freed
+    public Encoding(int defaultSize, Interner<E> interner) {
+	this(interner, new IdentityHashMap<E,Integer>(), (E[]) new Object[defaultSize]);
+    }
+
     public Encoding(int defaultSize) {
-	interner = new Interner<E>();
-	encoder = new IdentityHashMap<E,Integer>();
-	decoder = (E[]) new Object[defaultSize];
+	this(defaultSize, new Interner<E>());
     }
 
     public Encoding() {
@@ -0,0 +1,46 @@
+package org.mhjones.nlp.util;
+
+import org.mhjones.nlp.math.IntegerArrays;
+
+// Growable, reusable list of feature ids that BufferedFeatureExtractors append to.
+// The caller owns it and clears it between data, so extraction allocates nothing
+// once the buffer has grown to the largest datum.
+public class FeatureBuffer {
+    public int[] features;
+    int size;
+
+    public void add(int feature) {
+	if (size == features.length)
+	    features = IntegerArrays.resizeArray(features, Math.max(1, features.length*2));
+
+	features[size++] = feature;
+    }
+
+    public int get(int i) {
+	return features[i];
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public boolean isEmpty() {
+	return (size == 0);
+    }
+
+    public void clear() {
+	size = 0;
+    }
+
+    public int[] toArray() {
+	return IntegerArrays.resizeArray(features, size);
+    }
+
+    public FeatureBuffer(int capacity) {
+	features = new int[capacity];
+    }
+
+    public FeatureBuffer() {
+	this(64);
+    }
+}
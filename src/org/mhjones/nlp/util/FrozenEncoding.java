@@ -0,0 +1,77 @@
+package org.mhjones.nlp.util;
+
+import java.util.Arrays;
+import java.util.Set;
+
+// Read-only encoding: the keys in id order plus an open-addressing table of ids
+// hashed by key. Unknown keys are never added; encode and lookup both return
+// UNKNOWN for them, so reads of unseen keys allocate nothing.
+public class FrozenEncoding<E> extends Encoding<E> {
+    int[] table;
+    int mask;
+
+    protected static int slot(Object key, int mask) {
+	int h = key.hashCode() * 0x9E3779B9;
+	return (h ^ (h >>> 16)) & mask;
+    }
+
+    public int encode(E key) {
+	int eKey = lookup(key);
+
+	if (Metrics.ENABLED) {
+	    if (eKey == UNKNOWN) Metrics.encodeMisses.increment();
+	    else Metrics.encodeHits.increment();
+	}
+
+	return eKey;
+    }
+
+    public int lookup(E key) {
+	int pos = slot(key, mask);
+
+	for (int eKey = table[pos]; eKey != UNKNOWN; eKey = table[pos]) {
+	    if (key.equals(decoder[eKey]))
+		return eKey;
+	    pos = (pos + 1) & mask;
+	}
+
+	return UNKNOWN;
+    }
+
+    public E decode(int eKey) {
+	return decoder[eKey];
+    }
+
+    public Set<E> keySet() {
+	return decodedKeySet();
+    }
+
+    public int size() {
+	return decoder.length;
+    }
+
+    public Encoding<E> freeze() {
+	return this;
+    }
+
+    public FrozenEncoding(Encoding<E> encoding) {
+	super(null, null, (E[]) new Object[encoding.size()]);
+
+	for (int eKey = 0; eKey < decoder.length; eKey++)
+	    decoder[eKey] = encoding.decode(eKey);
+
+	int capacity = 2;
+	while (capacity < 2*decoder.length) capacity *= 2;
+
+	table = new int[capacity];
+	Arrays.fill(table, UNKNOWN);
+	mask = capacity - 1;
+
+	for (int eKey = 0; eKey < decoder.length; eKey++) {
+	    int pos = slot(decoder[eKey], mask);
+	    while (table[pos] != UNKNOWN)
+		pos = (pos + 1) & mask;
+	    table[pos] = eKey;
+	}
+    }
+}
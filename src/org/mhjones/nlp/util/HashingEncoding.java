@@ -0,0 +1,103 @@
+package org.mhjones.nlp.util;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+// Feature-hashing encoding: every key is mapped straight to one of 2^bits buckets
+// by MurmurHash, so no keys are stored and a Counter or CounterMap over it has a
+// fixed id space however many distinct keys it sees. Distinct keys may share a
+// bucket. Lookups never fail, so there is no UNKNOWN. Optionally the first key
+// seen in up to sampleSize buckets is kept, so decode can show what a bucket holds
+// while debugging; decode returns null for buckets outside the sample.
+public class HashingEncoding<E> extends Encoding<E> {
+    int bits;
+    int mask;
+    int seed;
+
+    int sampleSize;
+    int sampled;
+    IntegerMap sampleIdx; // bucket -> position in sampleKeys
+    E[] sampleKeys;
+
+    public int encode(E key) {
+	int eKey = MurmurHash.hash(key, seed) & mask;
+
+	if (sampled < sampleSize)
+	    sample(eKey, key);
+
+	return eKey;
+    }
+
+    public int lookup(E key) {
+	return MurmurHash.hash(key, seed) & mask;
+    }
+
+    protected synchronized void sample(int eKey, E key) {
+	if (sampled < sampleSize && !sampleIdx.containsKey(eKey)) {
+	    sampleKeys[sampled] = key;
+	    sampleIdx.put(eKey, sampled);
+	    sampled++;
+	}
+    }
+
+    public synchronized E decode(int eKey) {
+	if (sampleSize == 0)
+	    return null;
+
+	int pos = sampleIdx.get(eKey);
+	if (pos == IntegerMap.MISSING)
+	    return null;
+
+	return sampleKeys[pos];
+    }
+
+    public boolean containsKey(E key) {
+	return true;
+    }
+
+    // Only the sampled keys: the encoding does not remember the others
+    public synchronized Set<E> keySet() {
+	Set<E> keys = new HashSet<E>();
+	for (int i = 0; i < sampled; i++) keys.add(sampleKeys[i]);
+	return Collections.unmodifiableSet(keys);
+    }
+
+    public int size() {
+	return mask + 1;
+    }
+
+    public int bits() {
+	return bits;
+    }
+
+    // Already immutable apart from the debugging sample
+    public Encoding<E> freeze() {
+	return this;
+    }
+
+    public HashingEncoding(int bits, int sampleSize, int seed) {
+	super(null, null, null);
+
+	if (bits < 0 || bits > 30)
+	    throw new IllegalArgumentException("Bucket bits must be between 0 and 30: " + bits);
+
+	this.bits = bits;
+	this.mask = (1 << bits) - 1;
+	this.seed = seed;
+	this.sampleSize = sampleSize;
+
+	if (sampleSize > 0) {
+	    sampleIdx = new IntegerMap(sampleSize);
+	    sampleKeys = (E[]) new Object[sampleSize];
+	}
+    }
+
+    public HashingEncoding(int bits, int sampleSize) {
+	this(bits, sampleSize, 0x5eed);
+    }
+
+    public HashingEncoding(int bits) {
+	this(bits, 0);
+    }
+}
@@ -0,0 +1,114 @@
+package org.mhjones.nlp.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+// Open-addressing map from int keys (any but MISSING) to int values, used as the
+// sparse reverse index in CounterMap rows (no boxing, no per-entry objects).
+public class IntegerMap implements Serializable {
+    public static final int MISSING = -1;
+
+    int[] keys;
+    int[] values;
+    int size;
+    int mask;
+
+    protected static int slot(int key, int mask) {
+	int h = key * 0x9E3779B9;
+	return (h ^ (h >>> 16)) & mask;
+    }
+
+    public int get(int key) {
+	int pos = slot(key, mask);
+
+	while (keys[pos] != MISSING) {
+	    if (keys[pos] == key)
+		return values[pos];
+	    pos = (pos + 1) & mask;
+	}
+
+	return MISSING;
+    }
+
+    public boolean containsKey(int key) {
+	int pos = slot(key, mask);
+
+	while (keys[pos] != MISSING) {
+	    if (keys[pos] == key)
+		return true;
+	    pos = (pos + 1) & mask;
+	}
+
+	return false;
+    }
+
+    public void put(int key, int value) {
+	if (key == MISSING) throw new IllegalArgumentException("Key " + MISSING + " is reserved");
+
+	int pos = slot(key, mask);
+
+	while (keys[pos] != MISSING) {
+	    if (keys[pos] == key) {
+		values[pos] = value;
+		return;
+	    }
+	    pos = (pos + 1) & mask;
+	}
+
+	keys[pos] = key;
+	values[pos] = value;
+	size++;
+
+	// keep the load factor at or below 1/2 so probe chains stay short
+	if (2*size > keys.length)
+	    rehash(keys.length*2);
+    }
+
+    protected void rehash(int capacity) {
+	int[] oldKeys = keys;
+	int[] oldValues = values;
+
+	keys = new int[capacity];
+	values = new int[capacity];
+	Arrays.fill(keys, MISSING);
+	mask = capacity - 1;
+
+	for (int i = 0; i < oldKeys.length; i++) {
+	    if (oldKeys[i] == MISSING) continue;
+
+	    int pos = slot(oldKeys[i], mask);
+	    while (keys[pos] != MISSING)
+		pos = (pos + 1) & mask;
+
+	    keys[pos] = oldKeys[i];
+	    values[pos] = oldValues[i];
+	}
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public boolean isEmpty() {
+	return (size == 0);
+    }
+
+    public void clear() {
+	Arrays.fill(keys, MISSING);
+	size = 0;
+    }
+
+    public IntegerMap(int expectedSize) {
+	int capacity = 2;
+	while (capacity < 2*expectedSize) capacity *= 2;
+
+	keys = new int[capacity];
+	values = new int[capacity];
+	Arrays.fill(keys, MISSING);
+	mask = capacity - 1;
+    }
+
+    public IntegerMap() {
+	this(4);
+    }
+}
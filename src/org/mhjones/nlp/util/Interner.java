@@ -18,11 +18,20 @@ public class Interner<E> implements Serializable {
 	return cItem;
     }
 
+    // The canonical instance of item, or null if it has not been interned
+    public E canonical(E item) {
+	return canonicalMap.get(item);
+    }
+
     public int size() {
 	return canonicalMap.size();
     }
 
+    Interner(Map<E,E> canonicalMap) {
+	this.canonicalMap = canonicalMap;
+    }
+
     public Interner() {
-	canonicalMap = new HashMap<E,E>();
+	this(new HashMap<E,E>());
     }
 }
\ No newline at end of file
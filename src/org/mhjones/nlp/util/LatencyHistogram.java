@@ -0,0 +1,65 @@
+package org.mhjones.nlp.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Concurrent histogram of durations in nanoseconds with power-of-two buckets:
+// bucket b counts durations in [2^(b-1), 2^b). Recording is one striped add per
+// bucket, count and sum, so threads do not contend on a shared counter.
+// Percentiles are reported as the upper bound of their bucket.
+public class LatencyHistogram {
+    final LongAdder[] buckets = new LongAdder[64];
+    final LongAdder count = new LongAdder();
+    final LongAdder sum = new LongAdder();
+
+    public void record(long nanos) {
+	if (nanos < 0) nanos = 0;
+
+	buckets[64 - Long.numberOfLeadingZeros(nanos)].increment();
+	count.increment();
+	sum.add(nanos);
+    }
+
+    public long count() {
+	return count.sum();
+    }
+
+    public double mean() {
+	long count = count();
+	return (count == 0) ? 0.0 : (double) sum.sum() / count;
+    }
+
+    // Upper bound of the bucket holding the given fraction of recorded durations
+    public long percentile(double fraction) {
+	long[] counts = new long[buckets.length];
+	long total = 0;
+
+	for (int b = 0; b < buckets.length; b++) {
+	    counts[b] = buckets[b].sum();
+	    total += counts[b];
+	}
+
+	if (total == 0)
+	    return 0;
+
+	long rank = (long) Math.ceil(fraction * total);
+	long seen = 0;
+	for (int b = 0; b < buckets.length; b++) {
+	    seen += counts[b];
+	    if (seen >= rank)
+		return (b >= 63) ? Long.MAX_VALUE : (1L << b) - 1;
+	}
+
+	return Long.MAX_VALUE;
+    }
+
+    public void reset() {
+	for (LongAdder bucket : buckets) bucket.reset();
+	count.reset();
+	sum.reset();
+    }
+
+    public LatencyHistogram() {
+	for (int b = 0; b < buckets.length; b++)
+	    buckets[b] = new LongAdder();
+    }
+}
@@ -0,0 +1,157 @@
+package org.mhjones.nlp.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Size-bounded cache evicting the least recently used entries, safe for
+// concurrent callers. Keys are spread over up to SEGMENTS independently locked
+// segments (fewer when maxEntries is smaller), each an access-ordered
+// LinkedHashMap holding its share of maxEntries, which is split exactly so the
+// cache never holds more. Eviction is least recently used within a segment.
+// Counts hits and misses.
+//
+// get(key, validator) also checks that a cached value is still current, e.g. that
+// the model it was computed from has not changed; a stale value is dropped and
+// counted as a miss, so a changed model does not need the cache cleared.
+public class LruCache<K,V> {
+    static final int SEGMENTS = 16;
+
+    final Segment<K,V>[] segments;
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+
+    static class Segment<K,V> extends LinkedHashMap<K,V> {
+	final int maxEntries;
+
+	protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
+	    return size() > maxEntries;
+	}
+
+	Segment(int maxEntries) {
+	    super(16, 0.75f, true);
+	    this.maxEntries = maxEntries;
+	}
+    }
+
+    public interface Validator<V> {
+	boolean isCurrent(V value);
+    }
+
+    protected Segment<K,V> segment(Object key) {
+	int h = key.hashCode() * 0x9E3779B9;
+	return segments[(h >>> 28) & (segments.length - 1)];
+    }
+
+    // The cached value, or null on a miss
+    public V get(K key) {
+	Segment<K,V> segment = segment(key);
+	V value;
+
+	synchronized (segment) {
+	    value = segment.get(key);
+	}
+
+	if (value == null) misses.incrementAndGet();
+	else hits.incrementAndGet();
+
+	return value;
+    }
+
+    // The cached value if validator accepts it, or null on a miss; a value it
+    // rejects is removed and counted as a miss
+    public V get(K key, Validator<? super V> validator) {
+	Segment<K,V> segment = segment(key);
+	V value;
+
+	synchronized (segment) {
+	    value = segment.get(key);
+	    if (value != null && !validator.isCurrent(value)) {
+		segment.remove(key);
+		value = null;
+	    }
+	}
+
+	if (value == null) misses.incrementAndGet();
+	else hits.incrementAndGet();
+
+	return value;
+    }
+
+    public void put(K key, V value) {
+	Segment<K,V> segment = segment(key);
+
+	synchronized (segment) {
+	    segment.put(key, value);
+	}
+    }
+
+    public void remove(K key) {
+	Segment<K,V> segment = segment(key);
+
+	synchronized (segment) {
+	    segment.remove(key);
+	}
+    }
+
+    public void clear() {
+	for (Segment<K,V> segment : segments) {
+	    synchronized (segment) {
+		segment.clear();
+	    }
+	}
+    }
+
+    public int size() {
+	int size = 0;
+
+	for (Segment<K,V> segment : segments) {
+	    synchronized (segment) {
+		size += segment.size();
+	    }
+	}
+
+	return size;
+    }
+
+    public long hits() {
+	return hits.get();
+    }
+
+    public long misses() {
+	return misses.get();
+    }
+
+    public double hitRate() {
+	long hits = hits();
+	long total = hits + misses();
+	return (total == 0) ? 0.0 : (double) hits / total;
+    }
+
+    public void resetStatistics() {
+	hits.set(0);
+	misses.set(0);
+    }
+
+    public String toString() {
+	return "LruCache[size=" + size() + ", hits=" + hits() + ", misses=" + misses() + "]";
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K,V> Segment<K,V>[] newSegments(int count) {
+	return (Segment<K,V>[]) new Segment<?,?>[count];
+    }
+
+    public LruCache(int maxEntries) {
+	if (maxEntries < 1)
+	    throw new IllegalArgumentException("Cache must hold at least one entry: " + maxEntries);
+
+	// a power of two, so the top hash bits pick a segment, with at least one entry each
+	int count = SEGMENTS;
+	while (count > maxEntries) count /= 2;
+
+	segments = newSegments(count);
+	for (int i = 0; i < count; i++)
+	    segments[i] = new Segment<K,V>(maxEntries / count + ((i < maxEntries % count) ? 1 : 0));
+    }
+}
@@ -0,0 +1,103 @@
+package org.mhjones.nlp.util;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Set;
+
+// Read-only CounterMap over a section of a ModelFile. Row primary holds
+// positions rowStart(primary) to rowEnd(primary) of the column and value
+// buffers, sorted by encoded secondary.
+public class MappedCounterMap<E,F> {
+    public Encoding<E> primaryEncoding;
+    public Encoding<F> secondaryEncoding;
+
+    IntBuffer rowOffsets;
+    IntBuffer columns;
+    DoubleBuffer values;
+
+    public int rowStart(int ePrimary) {
+	return rowOffsets.get(ePrimary);
+    }
+
+    public int rowEnd(int ePrimary) {
+	return rowOffsets.get(ePrimary+1);
+    }
+
+    public int column(int pos) {
+	return columns.get(pos);
+    }
+
+    public double value(int pos) {
+	return values.get(pos);
+    }
+
+    // Position of eSecondary in row ePrimary, or Encoding.UNKNOWN
+    public int find(int ePrimary, int eSecondary) {
+	int low = rowStart(ePrimary);
+	int high = rowEnd(ePrimary) - 1;
+
+	while (low <= high) {
+	    int mid = (low + high) >>> 1;
+	    int column = columns.get(mid);
+
+	    if (column < eSecondary) low = mid + 1;
+	    else if (column > eSecondary) high = mid - 1;
+	    else return mid;
+	}
+
+	return Encoding.UNKNOWN;
+    }
+
+    public double getEncodedCount(int ePrimary, int eSecondary) {
+	int pos = find(ePrimary, eSecondary);
+
+	if (pos == Encoding.UNKNOWN)
+	    return 0.0;
+
+	return values.get(pos);
+    }
+
+    public double getCount(E primary, F secondary) {
+	int ePrimary = primaryEncoding.lookup(primary);
+	int eSecondary = secondaryEncoding.lookup(secondary);
+
+	if (ePrimary == Encoding.UNKNOWN || eSecondary == Encoding.UNKNOWN)
+	    return 0.0;
+
+	return getEncodedCount(ePrimary, eSecondary);
+    }
+
+    public F argMax(E primary) {
+	int ePrimary = primaryEncoding.lookup(primary);
+
+	if (ePrimary == Encoding.UNKNOWN || rowStart(ePrimary) == rowEnd(ePrimary))
+	    return null;
+
+	int arg = rowStart(ePrimary);
+	for (int pos = arg + 1; pos < rowEnd(ePrimary); pos++)
+	    if (values.get(pos) > values.get(arg))
+		arg = pos;
+
+	return secondaryEncoding.decode(columns.get(arg));
+    }
+
+    public Set<E> keySet() {
+	return primaryEncoding.keySet();
+    }
+
+    public int size() {
+	return primaryEncoding.size();
+    }
+
+    public boolean isEmpty() {
+	return (size() == 0);
+    }
+
+    MappedCounterMap(IntBuffer rowOffsets, IntBuffer columns, DoubleBuffer values, Encoding<E> primaryEncoding, Encoding<F> secondaryEncoding) {
+	this.rowOffsets = rowOffsets;
+	this.columns = columns;
+	this.values = values;
+	this.primaryEncoding = primaryEncoding;
+	this.secondaryEncoding = secondaryEncoding;
+    }
+}
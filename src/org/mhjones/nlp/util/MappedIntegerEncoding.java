@@ -0,0 +1,53 @@
+package org.mhjones.nlp.util;
+
+import java.nio.IntBuffer;
+import java.util.Set;
+
+// Read-only integer encoding over a section of a ModelFile: the keys in id order
+// and an open-addressing table of ids.
+public class MappedIntegerEncoding extends Encoding<Integer> {
+    IntBuffer keys;
+    IntBuffer table;
+    int mask;
+
+    public int encode(Integer key) {
+	return lookup(key);
+    }
+
+    public int lookup(Integer key) {
+	int pos = FrozenEncoding.slot(key, mask);
+
+	for (int eKey = table.get(pos); eKey != UNKNOWN; eKey = table.get(pos)) {
+	    if (keys.get(eKey) == key.intValue())
+		return eKey;
+	    pos = (pos + 1) & mask;
+	}
+
+	return UNKNOWN;
+    }
+
+    public Integer decode(int eKey) {
+	return keys.get(eKey);
+    }
+
+    public Set<Integer> keySet() {
+	return decodedKeySet();
+    }
+
+    // Already read-only
+    public Encoding<Integer> freeze() {
+	return this;
+    }
+
+    public int size() {
+	return keys.limit();
+    }
+
+    MappedIntegerEncoding(IntBuffer keys, IntBuffer table) {
+	super(null, null, null);
+
+	this.keys = keys;
+	this.table = table;
+	this.mask = table.limit() - 1;
+    }
+}
@@ -0,0 +1,78 @@
+package org.mhjones.nlp.util;
+
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Set;
+
+// Read-only string encoding over a section of a ModelFile: the keys' characters
+// laid end to end, the offset of each key, and an open-addressing table of ids.
+// Lookups compare characters in place; only decode builds a String.
+public class MappedStringEncoding extends Encoding<String> {
+    IntBuffer offsets;
+    IntBuffer table;
+    CharBuffer chars;
+    int size;
+    int mask;
+
+    public int encode(String key) {
+	return lookup(key);
+    }
+
+    public int lookup(String key) {
+	int pos = FrozenEncoding.slot(key, mask);
+
+	for (int eKey = table.get(pos); eKey != UNKNOWN; eKey = table.get(pos)) {
+	    if (matches(eKey, key))
+		return eKey;
+	    pos = (pos + 1) & mask;
+	}
+
+	return UNKNOWN;
+    }
+
+    protected boolean matches(int eKey, String key) {
+	int start = offsets.get(eKey);
+
+	if (offsets.get(eKey+1) - start != key.length())
+	    return false;
+
+	for (int i = 0; i < key.length(); i++)
+	    if (chars.get(start + i) != key.charAt(i))
+		return false;
+
+	return true;
+    }
+
+    public String decode(int eKey) {
+	int start = offsets.get(eKey);
+	char[] key = new char[offsets.get(eKey+1) - start];
+
+	for (int i = 0; i < key.length; i++)
+	    key[i] = chars.get(start + i);
+
+	return new String(key);
+    }
+
+    public Set<String> keySet() {
+	return decodedKeySet();
+    }
+
+    // Already read-only
+    public Encoding<String> freeze() {
+	return this;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    MappedStringEncoding(IntBuffer offsets, IntBuffer table, CharBuffer chars) {
+	super(null, null, null);
+
+	this.offsets = offsets;
+	this.table = table;
+	this.chars = chars;
+	this.size = offsets.limit() - 1;
+	this.mask = table.limit() - 1;
+    }
+}
@@ -0,0 +1,100 @@
+package org.mhjones.nlp.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Opt-in counters and latency histograms for the hot paths of Encoding, Counter,
+// CounterMap and NaiveBayesClassifier. Turned on by running with
+// -Dorg.mhjones.nlp.metrics=true. ENABLED is a static final, so once a hot path is
+// JIT compiled with it off, the "if (Metrics.ENABLED)" hooks fold away; javac
+// still emits them, and interpreted code pays a field read and a branch. Counters
+// are LongAdders, striped per thread. Read them with snapshot() or over JMX after
+// registerMBean().
+public class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("org.mhjones.nlp.metrics");
+
+    public static final String OBJECT_NAME = "org.mhjones.nlp:type=Metrics";
+
+    // Encoding.encode calls that found an existing id, and those that assigned a
+    // new one (or, for a frozen encoding, returned UNKNOWN)
+    public static final LongAdder encodeHits = new LongAdder();
+    public static final LongAdder encodeMisses = new LongAdder();
+
+    // Reallocations of Counter.values and of the CounterMap row table
+    public static final LongAdder counterResizes = new LongAdder();
+    public static final LongAdder counterMapResizes = new LongAdder();
+
+    // Reallocations of a single sparse CounterMap row
+    public static final LongAdder rowGrowths = new LongAdder();
+
+    public static final LatencyHistogram labelLatency = new LatencyHistogram();
+
+    public interface MetricsMXBean {
+	Map<String, Double> getSnapshot();
+	long getEncodeHits();
+	long getEncodeMisses();
+	long getCounterResizes();
+	long getCounterMapResizes();
+	long getRowGrowths();
+	long getLabelCount();
+	double getLabelMeanNanos();
+	void reset();
+    }
+
+    static class MBean implements MetricsMXBean {
+	public Map<String, Double> getSnapshot() { return snapshot(); }
+	public long getEncodeHits() { return encodeHits.sum(); }
+	public long getEncodeMisses() { return encodeMisses.sum(); }
+	public long getCounterResizes() { return counterResizes.sum(); }
+	public long getCounterMapResizes() { return counterMapResizes.sum(); }
+	public long getRowGrowths() { return rowGrowths.sum(); }
+	public long getLabelCount() { return labelLatency.count(); }
+	public double getLabelMeanNanos() { return labelLatency.mean(); }
+	public void reset() { Metrics.reset(); }
+    }
+
+    // Current values by name, in name order
+    public static Map<String, Double> snapshot() {
+	Map<String, Double> snapshot = new TreeMap<String, Double>();
+
+	snapshot.put("encoding.hits", (double) encodeHits.sum());
+	snapshot.put("encoding.misses", (double) encodeMisses.sum());
+	snapshot.put("counter.resizes", (double) counterResizes.sum());
+	snapshot.put("counterMap.resizes", (double) counterMapResizes.sum());
+	snapshot.put("counterMap.rowGrowths", (double) rowGrowths.sum());
+	snapshot.put("label.count", (double) labelLatency.count());
+	snapshot.put("label.meanNanos", labelLatency.mean());
+	snapshot.put("label.p50Nanos", (double) labelLatency.percentile(0.5));
+	snapshot.put("label.p99Nanos", (double) labelLatency.percentile(0.99));
+
+	return snapshot;
+    }
+
+    public static void reset() {
+	encodeHits.reset();
+	encodeMisses.reset();
+	counterResizes.reset();
+	counterMapResizes.reset();
+	rowGrowths.reset();
+	labelLatency.reset();
+    }
+
+    // Registers the metrics with the platform MBean server under OBJECT_NAME; does
+    // nothing if they are already registered
+    public static synchronized void registerMBean() {
+	try {
+	    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	    ObjectName name = new ObjectName(OBJECT_NAME);
+
+	    if (!server.isRegistered(name))
+		server.registerMBean(new MBean(), name);
+	} catch (JMException e) {
+	    throw new IllegalStateException("Could not register metrics MBean", e);
+	}
+    }
+}
@@ -0,0 +1,302 @@
+package org.mhjones.nlp.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// Versioned binary format for encodings and counters. A file is a header followed
+// by sections; each section is a tag, its payload length, and a payload of flat
+// little-endian arrays padded to 8 bytes. Readers map each section with
+// FileChannel.map and read the arrays in place, so loading a model copies nothing
+// onto the heap (a single section is limited to 2GB by the mapping API).
+public class ModelFile {
+    public static final int MAGIC = 0x4d504c4e; // "NLPM"
+    public static final int VERSION = 1;
+
+    public static final int STRING_ENCODING = 1;
+    public static final int INTEGER_ENCODING = 2;
+    public static final int COUNTER = 3;
+    public static final int COUNTER_MAP = 4;
+
+    static final int HEADER_BYTES = 8;
+    static final int SECTION_HEADER_BYTES = 16;
+
+    // Open-addressing table of ids by key, probed the same way as FrozenEncoding
+    static int[] hashTable(Encoding<?> encoding) {
+	int capacity = 2;
+	while (capacity < 2*encoding.size()) capacity *= 2;
+
+	int[] table = new int[capacity];
+	Arrays.fill(table, Encoding.UNKNOWN);
+
+	for (int eKey = 0; eKey < encoding.size(); eKey++) {
+	    int pos = FrozenEncoding.slot(encoding.decode(eKey), capacity - 1);
+	    while (table[pos] != Encoding.UNKNOWN)
+		pos = (pos + 1) & (capacity - 1);
+	    table[pos] = eKey;
+	}
+
+	return table;
+    }
+
+    static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+	ByteBuffer view = buffer.duplicate();
+	view.limit(position + length);
+	view.position(position);
+	return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static int padding(long length) {
+	return (int) ((8 - (length & 7)) & 7);
+    }
+
+    public static class Writer implements Closeable {
+	RandomAccessFile file;
+	FileChannel channel;
+	ByteBuffer buffer;
+	long sectionStart;
+
+	void flush() throws IOException {
+	    buffer.flip();
+	    while (buffer.hasRemaining()) channel.write(buffer);
+	    buffer.clear();
+	}
+
+	void ensure(int bytes) throws IOException {
+	    if (buffer.remaining() < bytes) flush();
+	}
+
+	void putInt(int x) throws IOException {
+	    ensure(4);
+	    buffer.putInt(x);
+	}
+
+	void putInts(int[] x, int start, int length) throws IOException {
+	    for (int i = start; i < start+length; i++) putInt(x[i]);
+	}
+
+	void putDouble(double x) throws IOException {
+	    ensure(8);
+	    buffer.putDouble(x);
+	}
+
+	void putChar(char x) throws IOException {
+	    ensure(2);
+	    buffer.putChar(x);
+	}
+
+	void beginSection(int tag) throws IOException {
+	    flush();
+	    sectionStart = channel.position();
+	    putInt(tag);
+	    putInt(0);
+	    ensure(8);
+	    buffer.putLong(0L); // payload length, patched by endSection
+	}
+
+	void endSection() throws IOException {
+	    flush();
+	    long length = channel.position() - sectionStart - SECTION_HEADER_BYTES;
+
+	    for (int i = padding(length); i > 0; i--) buffer.put((byte) 0);
+	    flush();
+
+	    ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+	    header.putLong(0, length + padding(length));
+	    channel.write(header, sectionStart + 8);
+	}
+
+	// count, table capacity, char count, offsets[count+1], table, chars
+	public void writeStringEncoding(Encoding<String> encoding) throws IOException {
+	    int[] table = hashTable(encoding);
+	    int[] offsets = new int[encoding.size() + 1];
+
+	    for (int eKey = 0; eKey < encoding.size(); eKey++)
+		offsets[eKey+1] = offsets[eKey] + encoding.decode(eKey).length();
+
+	    beginSection(STRING_ENCODING);
+	    putInt(encoding.size());
+	    putInt(table.length);
+	    putInt(offsets[encoding.size()]);
+	    putInt(0);
+	    putInts(offsets, 0, offsets.length);
+	    putInts(table, 0, table.length);
+
+	    for (int eKey = 0; eKey < encoding.size(); eKey++) {
+		String key = encoding.decode(eKey);
+		for (int i = 0; i < key.length(); i++) putChar(key.charAt(i));
+	    }
+	    endSection();
+	}
+
+	// count, table capacity, keys[count], table
+	public void writeIntegerEncoding(Encoding<Integer> encoding) throws IOException {
+	    int[] table = hashTable(encoding);
+
+	    beginSection(INTEGER_ENCODING);
+	    putInt(encoding.size());
+	    putInt(table.length);
+	    for (int eKey = 0; eKey < encoding.size(); eKey++) putInt(encoding.decode(eKey));
+	    putInts(table, 0, table.length);
+	    endSection();
+	}
+
+	// size, values[size]
+	public void writeCounter(Counter<?> counter) throws IOException {
+	    int size = counter.encoding.size();
+
+	    beginSection(COUNTER);
+	    putInt(size);
+	    putInt(0);
+	    for (int eKey = 0; eKey < size; eKey++)
+		putDouble((eKey < counter.values.length) ? counter.values[eKey] : counter.defaultValue);
+	    endSection();
+	}
+
+	// rows, entries, rowOffsets[rows+1], columns[entries], values[entries];
+	// each row is sorted by encoded secondary
+	public void writeCounterMap(CompactCounterMap<?,?> counterMap) throws IOException {
+	    int rows = counterMap.rows();
+	    int entries = counterMap.rowOffsets[rows];
+
+	    beginSection(COUNTER_MAP);
+	    putInt(rows);
+	    putInt(entries);
+	    putInts(counterMap.rowOffsets, 0, rows + 1);
+	    putInts(counterMap.columns, 0, entries);
+	    if ((entries + rows + 1) % 2 == 1) putInt(0);
+	    for (int pos = 0; pos < entries; pos++) putDouble(counterMap.values[pos]);
+	    endSection();
+	}
+
+	public void writeCounterMap(CounterMap<?,?> counterMap) throws IOException {
+	    writeCounterMap(counterMap.compact());
+	}
+
+	public void close() throws IOException {
+	    flush();
+	    channel.close();
+	    file.close();
+	}
+
+	public Writer(String filename) throws IOException {
+	    file = new RandomAccessFile(filename, "rw");
+	    file.setLength(0);
+	    channel = file.getChannel();
+	    buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+	    putInt(MAGIC);
+	    putInt(VERSION);
+	}
+    }
+
+    // Reads sections back in the order they were written
+    public static class Reader implements Closeable {
+	RandomAccessFile file;
+	FileChannel channel;
+	long position;
+
+	ByteBuffer nextSection(int tag) throws IOException {
+	    ByteBuffer header = ByteBuffer.allocate(SECTION_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+	    while (header.hasRemaining())
+		if (channel.read(header, position + header.position()) < 0)
+		    throw new IOException("Unexpected end of model file");
+
+	    if (header.getInt(0) != tag)
+		throw new IOException("Expected section " + tag + " but found " + header.getInt(0));
+
+	    long length = header.getLong(8);
+	    if (length > Integer.MAX_VALUE)
+		throw new IOException("Section of " + length + " bytes is too large to map");
+
+	    MappedByteBuffer section = channel.map(FileChannel.MapMode.READ_ONLY, position + SECTION_HEADER_BYTES, length);
+	    position += SECTION_HEADER_BYTES + length;
+
+	    return section.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public MappedStringEncoding readStringEncoding() throws IOException {
+	    ByteBuffer section = nextSection(STRING_ENCODING);
+	    int size = section.getInt(0);
+	    int capacity = section.getInt(4);
+	    int chars = section.getInt(8);
+	    int offsetsAt = 16;
+	    int tableAt = offsetsAt + 4*(size + 1);
+	    int charsAt = tableAt + 4*capacity;
+
+	    return new MappedStringEncoding(slice(section, offsetsAt, 4*(size + 1)).asIntBuffer(),
+					    slice(section, tableAt, 4*capacity).asIntBuffer(),
+					    slice(section, charsAt, 2*chars).asCharBuffer());
+	}
+
+	public MappedIntegerEncoding readIntegerEncoding() throws IOException {
+	    ByteBuffer section = nextSection(INTEGER_ENCODING);
+	    int size = section.getInt(0);
+	    int capacity = section.getInt(4);
+	    int keysAt = 8;
+	    int tableAt = keysAt + 4*size;
+
+	    return new MappedIntegerEncoding(slice(section, keysAt, 4*size).asIntBuffer(),
+					     slice(section, tableAt, 4*capacity).asIntBuffer());
+	}
+
+	// Counters are dense, so this one is copied onto the heap in a single bulk read
+	public <E> Counter<E> readCounter(Encoding<E> encoding) throws IOException {
+	    ByteBuffer section = nextSection(COUNTER);
+	    int size = section.getInt(0);
+
+	    if (size != encoding.size())
+		throw new IOException("Counter of size " + size + " does not match encoding of size " + encoding.size());
+
+	    Counter<E> counter = new Counter<E>(size, false, encoding);
+	    slice(section, 8, 8*size).asDoubleBuffer().get(counter.values, 0, size);
+
+	    return counter;
+	}
+
+	public <E,F> MappedCounterMap<E,F> readCounterMap(Encoding<E> primaryEncoding, Encoding<F> secondaryEncoding) throws IOException {
+	    ByteBuffer section = nextSection(COUNTER_MAP);
+	    int rows = section.getInt(0);
+	    int entries = section.getInt(4);
+	    int offsetsAt = 8;
+	    int columnsAt = offsetsAt + 4*(rows + 1);
+	    int valuesAt = columnsAt + 4*entries + 4*((entries + rows + 1) % 2);
+
+	    if (rows != primaryEncoding.size())
+		throw new IOException("CounterMap with " + rows + " rows does not match encoding of size " + primaryEncoding.size());
+
+	    return new MappedCounterMap<E,F>(slice(section, offsetsAt, 4*(rows + 1)).asIntBuffer(),
+					     slice(section, columnsAt, 4*entries).asIntBuffer(),
+					     slice(section, valuesAt, 8*entries).asDoubleBuffer(),
+					     primaryEncoding, secondaryEncoding);
+	}
+
+	// The mappings stay valid after the file is closed
+	public void close() throws IOException {
+	    channel.close();
+	    file.close();
+	}
+
+	public Reader(String filename) throws IOException {
+	    file = new RandomAccessFile(filename, "r");
+	    channel = file.getChannel();
+
+	    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+	    while (header.hasRemaining())
+		if (channel.read(header, header.position()) < 0)
+		    throw new IOException(filename + " is not a model file");
+
+	    if (header.getInt(0) != MAGIC)
+		throw new IOException(filename + " is not a model file");
+	    if (header.getInt(4) != VERSION)
+		throw new IOException(filename + " has unsupported model file version " + header.getInt(4));
+
+	    position = HEADER_BYTES;
+	}
+    }
+}
@@ -0,0 +1,58 @@
+package org.mhjones.nlp.util;
+
+// MurmurHash3 (x86, 32-bit) over ints and the chars of a CharSequence: fast,
+// non-cryptographic, and well mixed in every bit, unlike String.hashCode.
+public class MurmurHash {
+    static final int C1 = 0xcc9e2d51;
+    static final int C2 = 0x1b873593;
+
+    static int mixK1(int k1) {
+	k1 *= C1;
+	k1 = Integer.rotateLeft(k1, 15);
+	return k1 * C2;
+    }
+
+    static int mixH1(int h1, int k1) {
+	h1 ^= k1;
+	h1 = Integer.rotateLeft(h1, 13);
+	return h1*5 + 0xe6546b64;
+    }
+
+    // Final avalanche: every input bit affects every output bit
+    public static int fmix(int h1, int length) {
+	h1 ^= length;
+	h1 ^= h1 >>> 16;
+	h1 *= 0x85ebca6b;
+	h1 ^= h1 >>> 13;
+	h1 *= 0xc2b2ae35;
+	h1 ^= h1 >>> 16;
+	return h1;
+    }
+
+    public static int hash(int x, int seed) {
+	return fmix(mixH1(seed, mixK1(x)), 4);
+    }
+
+    // Hashes two chars per 32-bit block, so no bytes are materialized
+    public static int hash(CharSequence s, int seed) {
+	int h1 = seed;
+	int length = s.length();
+	int i = 1;
+
+	for (; i < length; i += 2) {
+	    int k1 = s.charAt(i-1) | (s.charAt(i) << 16);
+	    h1 = mixH1(h1, mixK1(k1));
+	}
+
+	if ((length & 1) == 1)
+	    h1 ^= mixK1(s.charAt(length-1));
+
+	return fmix(h1, 2*length);
+    }
+
+    public static int hash(Object key, int seed) {
+	if (key instanceof CharSequence) return hash((CharSequence) key, seed);
+	if (key instanceof Integer) return hash(((Integer) key).intValue(), seed);
+	return hash(key.hashCode(), seed);
+    }
+}
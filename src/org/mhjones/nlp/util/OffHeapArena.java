@@ -0,0 +1,92 @@
+package org.mhjones.nlp.util;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+// Allocator for variable-sized blocks in direct memory. Blocks come in power-of-two
+// size classes; freed blocks go on a free list per class (linked through their
+// first 8 bytes) and are reused before new space is taken. New space is bumped off
+// the current chunk, and a block larger than a chunk gets a chunk of its own.
+// Addresses pack (chunk << 32 | offset); 0 is never a valid address.
+class OffHeapArena implements Closeable {
+    static final int CHUNK_BYTES = 1 << 24;
+
+    ByteBuffer[] chunks;
+    int chunkCount;
+    int position; // next free byte in the last chunk
+    long[] freeLists = new long[32];
+
+    static int chunkIndex(long address) {
+	return (int) (address >>> 32);
+    }
+
+    static int offset(long address) {
+	return (int) address;
+    }
+
+    ByteBuffer buffer(long address) {
+	if (chunks == null)
+	    throw new IllegalStateException("Off-heap storage has been closed");
+	return chunks[chunkIndex(address)];
+    }
+
+    // A block of at least bytes bytes for size class sizeClass; contents are undefined
+    long allocate(int sizeClass, int bytes) {
+	if (chunks == null)
+	    throw new IllegalStateException("Off-heap storage has been closed");
+
+	long address = freeLists[sizeClass];
+	if (address != 0) {
+	    freeLists[sizeClass] = buffer(address).getLong(offset(address));
+	    return address;
+	}
+
+	// keep blocks 8-byte aligned
+	bytes = (bytes + 7) & ~7;
+
+	if (chunkCount == 0 || position + bytes > chunks[chunkCount-1].capacity())
+	    addChunk(Math.max(CHUNK_BYTES, bytes));
+
+	address = ((long) (chunkCount-1) << 32) | position;
+	position += bytes;
+	return address;
+    }
+
+    void free(long address, int sizeClass) {
+	buffer(address).putLong(offset(address), freeLists[sizeClass]);
+	freeLists[sizeClass] = address;
+    }
+
+    protected void addChunk(int bytes) {
+	if (chunkCount == chunks.length) {
+	    ByteBuffer[] newChunks = new ByteBuffer[chunks.length * 2];
+	    System.arraycopy(chunks, 0, newChunks, 0, chunkCount);
+	    chunks = newChunks;
+	}
+
+	chunks[chunkCount++] = DirectMemory.allocate(bytes);
+	// offset 0 of the first chunk is reserved so that no block has address 0
+	position = (chunkCount == 1) ? 8 : 0;
+    }
+
+    // Bytes reserved from the operating system, including free and unused space
+    long reservedBytes() {
+	long total = 0;
+	for (int i = 0; i < chunkCount; i++) total += chunks[i].capacity();
+	return total;
+    }
+
+    public void close() {
+	if (chunks == null)
+	    return;
+
+	for (int i = 0; i < chunkCount; i++)
+	    DirectMemory.free(chunks[i]);
+	chunks = null;
+	chunkCount = 0;
+    }
+
+    OffHeapArena() {
+	chunks = new ByteBuffer[4];
+    }
+}
@@ -0,0 +1,75 @@
+package org.mhjones.nlp.util;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+// Growable array of 8-byte slots (doubles or longs) in direct memory, indexed by
+// long. Storage is a list of fixed-size chunks, so growing never copies and no
+// single buffer limits the length. New slots read as 0.
+class OffHeapArray implements Closeable {
+    static final int CHUNK_BITS = 17; // 128k slots, 1MB per chunk
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    ByteBuffer[] chunks;
+    int chunkCount;
+
+    static int offset(long index) {
+	return ((int) index & CHUNK_MASK) << 3;
+    }
+
+    ByteBuffer chunk(long index) {
+	if (chunks == null)
+	    throw new IllegalStateException("Off-heap storage has been closed");
+	return chunks[(int) (index >>> CHUNK_BITS)];
+    }
+
+    // Slots up to capacity; slots beyond it must not be read or written
+    long capacity() {
+	if (chunks == null)
+	    throw new IllegalStateException("Off-heap storage has been closed");
+	return (long) chunkCount << CHUNK_BITS;
+    }
+
+    void ensureCapacity(long length) {
+	while (capacity() < length) {
+	    if (chunkCount == chunks.length) {
+		ByteBuffer[] newChunks = new ByteBuffer[chunks.length * 2];
+		System.arraycopy(chunks, 0, newChunks, 0, chunkCount);
+		chunks = newChunks;
+	    }
+	    chunks[chunkCount++] = DirectMemory.allocate(CHUNK_SIZE << 3);
+	}
+    }
+
+    double getDouble(long index) {
+	return chunk(index).getDouble(offset(index));
+    }
+
+    void putDouble(long index, double value) {
+	chunk(index).putDouble(offset(index), value);
+    }
+
+    long getLong(long index) {
+	return chunk(index).getLong(offset(index));
+    }
+
+    void putLong(long index, long value) {
+	chunk(index).putLong(offset(index), value);
+    }
+
+    public void close() {
+	if (chunks == null)
+	    return;
+
+	for (int i = 0; i < chunkCount; i++)
+	    DirectMemory.free(chunks[i]);
+	chunks = null;
+	chunkCount = 0;
+    }
+
+    OffHeapArray(long length) {
+	chunks = new ByteBuffer[4];
+	ensureCapacity(length);
+    }
+}
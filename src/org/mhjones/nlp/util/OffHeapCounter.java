@@ -0,0 +1,95 @@
+package org.mhjones.nlp.util;
+
+import java.io.Closeable;
+import java.util.Set;
+
+// Counter whose values live in direct memory rather than in a heap double[], for
+// vocabularies large enough that the array would burden the collector. The memory
+// is released by close(); the counter must not be used afterwards.
+public class OffHeapCounter<E> implements Closeable {
+    public Encoding<E> encoding;
+    OffHeapArray values;
+
+    protected int encode(E key) {
+	int eKey = encoding.encode(key);
+
+	if (eKey == Encoding.UNKNOWN)
+	    throw new IllegalArgumentException("Key is not in frozen encoding: " + key);
+
+	values.ensureCapacity((long) eKey + 1);
+	return eKey;
+    }
+
+    public Set<E> keySet() {
+	return encoding.keySet();
+    }
+
+    public int size() {
+	return encoding.size();
+    }
+
+    public boolean isEmpty() {
+	return (size() == 0);
+    }
+
+    // Reads never add key to the encoding
+    public double getCount(E key) {
+	int eKey = encoding.lookup(key);
+
+	if (eKey == Encoding.UNKNOWN || eKey >= values.capacity())
+	    return 0.0;
+
+	return values.getDouble(eKey);
+    }
+
+    public void incrementCount(E key) {
+	incrementCount(key, 1.0);
+    }
+
+    public void incrementCount(E key, double val) {
+	int eKey = encode(key);
+	values.putDouble(eKey, values.getDouble(eKey) + val);
+    }
+
+    double totalCount() {
+	double total = 0.0;
+	int size = Math.min(encoding.size(), (int) Math.min(values.capacity(), Integer.MAX_VALUE));
+	for (int eKey = 0; eKey < size; eKey++) total += values.getDouble(eKey);
+	return total;
+    }
+
+    public void normalize() {
+	values.ensureCapacity(encoding.size());
+
+	double scale = 1.0 / totalCount();
+	for (int eKey = 0; eKey < encoding.size(); eKey++)
+	    values.putDouble(eKey, values.getDouble(eKey) * scale);
+    }
+
+    // Earliest key with the largest count, or null if there are none
+    public E argMax() {
+	int size = Math.min(encoding.size(), (int) Math.min(values.capacity(), Integer.MAX_VALUE));
+	if (size == 0)
+	    return null;
+
+	int best = 0;
+	for (int eKey = 1; eKey < size; eKey++)
+	    if (values.getDouble(eKey) > values.getDouble(best)) best = eKey;
+
+	return encoding.decode(best);
+    }
+
+    // Frees the off-heap values
+    public void close() {
+	values.close();
+    }
+
+    public OffHeapCounter(Encoding<E> encoding) {
+	this.encoding = encoding;
+	this.values = new OffHeapArray(encoding.size());
+    }
+
+    public OffHeapCounter() {
+	this(new Encoding<E>());
+    }
+}
@@ -0,0 +1,285 @@
+package org.mhjones.nlp.util;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+// CounterMap whose rows live in direct memory, for count tables large enough that
+// heap rows would burden the collector. Each row is one arena block laid out as
+//   [int sizeClass][int used][int secondary[cap]][double value[cap]][int index[2*cap]]
+// where secondaries and values are kept in insertion order, as in CounterMap
+// rows (so argMax breaks ties the same way), and index is an open-addressing
+// table of position+1 (0 = empty) keyed by secondary. A full row is copied into a
+// block of the next size class and its old block reused for later rows. The
+// memory is released by close(); the map must not be used afterwards.
+public class OffHeapCounterMap<E,F> implements Closeable {
+    static final int MIN_CLASS = 2;
+    static final int MAX_CLASS = 26; // keeps a block under 2GB
+
+    public Encoding<E> primaryEncoding;
+    public Encoding<F> secondaryEncoding;
+
+    OffHeapArray rows; // block address of each primary's row, 0 if it has none
+    OffHeapArena arena;
+
+    static int capacity(int sizeClass) {
+	return 1 << sizeClass;
+    }
+
+    static int valuesOffset(int capacity) {
+	return 8 + 4*capacity;
+    }
+
+    static int indexOffset(int capacity) {
+	return 8 + 12*capacity;
+    }
+
+    protected int encodePrimary(E key) {
+	int eKey = primaryEncoding.encode(key);
+
+	if (eKey == Encoding.UNKNOWN)
+	    throw new IllegalArgumentException("Key is not in frozen encoding: " + key);
+
+	return eKey;
+    }
+
+    protected int encodeSecondary(F key) {
+	int eKey = secondaryEncoding.encode(key);
+
+	if (eKey == Encoding.UNKNOWN)
+	    throw new IllegalArgumentException("Key is not in frozen encoding: " + key);
+
+	return eKey;
+    }
+
+    public Set<E> keySet() {
+	return primaryEncoding.keySet();
+    }
+
+    public int size() {
+	return primaryEncoding.size();
+    }
+
+    public boolean isEmpty() {
+	return (size() == 0);
+    }
+
+    protected long row(int ePrimary) {
+	if (ePrimary < 0 || ePrimary >= rows.capacity())
+	    return 0;
+	return rows.getLong(ePrimary);
+    }
+
+    protected long newRow(int sizeClass) {
+	int cap = capacity(sizeClass);
+	long address = arena.allocate(sizeClass, indexOffset(cap) + 8*cap);
+	ByteBuffer block = arena.buffer(address);
+	int base = OffHeapArena.offset(address);
+
+	block.putInt(base, sizeClass);
+	block.putInt(base + 4, 0);
+
+	// 2*cap empty index slots, two per long
+	int index = base + indexOffset(cap);
+	for (int i = 0; i < cap; i++)
+	    block.putLong(index + 8*i, 0L);
+
+	return address;
+    }
+
+    // Position of eSecondary in the row at base, or -1
+    protected static int find(ByteBuffer block, int base, int eSecondary) {
+	int cap = capacity(block.getInt(base));
+	int mask = 2*cap - 1;
+	int index = base + indexOffset(cap);
+	int slot = IntegerMap.slot(eSecondary, mask);
+	int entry;
+
+	while ((entry = block.getInt(index + 4*slot)) != 0) {
+	    if (block.getInt(base + 8 + 4*(entry-1)) == eSecondary)
+		return entry - 1;
+	    slot = (slot + 1) & mask;
+	}
+
+	return -1;
+    }
+
+    protected static void index(ByteBuffer block, int base, int cap, int eSecondary, int pos) {
+	int mask = 2*cap - 1;
+	int index = base + indexOffset(cap);
+	int slot = IntegerMap.slot(eSecondary, mask);
+
+	while (block.getInt(index + 4*slot) != 0)
+	    slot = (slot + 1) & mask;
+
+	block.putInt(index + 4*slot, pos + 1);
+    }
+
+    // Moves a full row into a block of the next size class
+    protected long growRow(int ePrimary, long address) {
+	ByteBuffer oldBlock = arena.buffer(address);
+	int oldBase = OffHeapArena.offset(address);
+	int sizeClass = oldBlock.getInt(oldBase);
+	int used = oldBlock.getInt(oldBase + 4);
+	int oldCap = capacity(sizeClass);
+
+	if (sizeClass == MAX_CLASS)
+	    throw new IllegalStateException("Row " + ePrimary + " is full at " + used + " entries");
+
+	long newAddress = newRow(sizeClass + 1);
+	ByteBuffer block = arena.buffer(newAddress);
+	int base = OffHeapArena.offset(newAddress);
+	int cap = capacity(sizeClass + 1);
+
+	for (int pos = 0; pos < used; pos++) {
+	    int eSecondary = oldBlock.getInt(oldBase + 8 + 4*pos);
+	    block.putInt(base + 8 + 4*pos, eSecondary);
+	    block.putDouble(base + valuesOffset(cap) + 8*pos, oldBlock.getDouble(oldBase + valuesOffset(oldCap) + 8*pos));
+	    index(block, base, cap, eSecondary, pos);
+	}
+	block.putInt(base + 4, used);
+
+	arena.free(address, sizeClass);
+	rows.putLong(ePrimary, newAddress);
+	return newAddress;
+    }
+
+    public double getEncodedCount(int ePrimary, int eSecondary) {
+	long address = row(ePrimary);
+	if (address == 0)
+	    return 0.0;
+
+	ByteBuffer block = arena.buffer(address);
+	int base = OffHeapArena.offset(address);
+	int pos = find(block, base, eSecondary);
+	if (pos < 0)
+	    return 0.0;
+
+	return block.getDouble(base + valuesOffset(capacity(block.getInt(base))) + 8*pos);
+    }
+
+    // Reads never add keys to the encodings
+    public double getCount(E primary, F secondary) {
+	int ePrimary = primaryEncoding.lookup(primary);
+	int eSecondary = secondaryEncoding.lookup(secondary);
+
+	if (ePrimary == Encoding.UNKNOWN || eSecondary == Encoding.UNKNOWN)
+	    return 0.0;
+
+	return getEncodedCount(ePrimary, eSecondary);
+    }
+
+    public void incrementCount(E primary, F secondary) {
+	incrementCount(primary, secondary, 1.0);
+    }
+
+    public void incrementCount(E primary, F secondary, double val) {
+	incrementEncodedCount(encodePrimary(primary), encodeSecondary(secondary), val);
+    }
+
+    public void incrementEncodedCount(int ePrimary, int eSecondary, double val) {
+	if (ePrimary < 0 || eSecondary < 0)
+	    throw new IllegalArgumentException("Encoded keys must not be negative: " + ePrimary + ", " + eSecondary);
+
+	rows.ensureCapacity((long) ePrimary + 1);
+
+	long address = rows.getLong(ePrimary);
+	if (address == 0) {
+	    address = newRow(MIN_CLASS);
+	    rows.putLong(ePrimary, address);
+	}
+
+	ByteBuffer block = arena.buffer(address);
+	int base = OffHeapArena.offset(address);
+	int pos = find(block, base, eSecondary);
+
+	// Is it not in the row?
+	if (pos < 0) {
+	    pos = block.getInt(base + 4);
+
+	    if (pos == capacity(block.getInt(base))) {
+		address = growRow(ePrimary, address);
+		block = arena.buffer(address);
+		base = OffHeapArena.offset(address);
+	    }
+
+	    int cap = capacity(block.getInt(base));
+	    block.putInt(base + 8 + 4*pos, eSecondary);
+	    block.putDouble(base + valuesOffset(cap) + 8*pos, 0.0);
+	    index(block, base, cap, eSecondary, pos);
+	    block.putInt(base + 4, pos + 1);
+	}
+
+	int value = base + valuesOffset(capacity(block.getInt(base))) + 8*pos;
+	block.putDouble(value, block.getDouble(value) + val);
+    }
+
+    // Swaps both encodings for frozen copies, as CounterMap.freeze does
+    public void freeze() {
+	primaryEncoding = primaryEncoding.freeze();
+	secondaryEncoding = secondaryEncoding.freeze();
+    }
+
+    public void normalize() {
+	int primaries = (int) Math.min(rows.capacity(), primaryEncoding.size());
+
+	for (int primary = 0; primary < primaries; primary++) {
+	    long address = rows.getLong(primary);
+	    if (address == 0)
+		continue;
+
+	    ByteBuffer block = arena.buffer(address);
+	    int base = OffHeapArena.offset(address);
+	    int used = block.getInt(base + 4);
+	    int values = base + valuesOffset(capacity(block.getInt(base)));
+
+	    double total = 0.0;
+	    for (int pos = 0; pos < used; pos++) total += block.getDouble(values + 8*pos);
+
+	    double scale = 1.0 / total;
+	    for (int pos = 0; pos < used; pos++)
+		block.putDouble(values + 8*pos, block.getDouble(values + 8*pos) * scale);
+	}
+    }
+
+    // Earliest-inserted secondary with the largest count, or null for an empty row
+    public F argMax(E primary) {
+	int ePrimary = primaryEncoding.lookup(primary);
+	long address = (ePrimary == Encoding.UNKNOWN) ? 0 : row(ePrimary);
+	if (address == 0)
+	    return null;
+
+	ByteBuffer block = arena.buffer(address);
+	int base = OffHeapArena.offset(address);
+	int used = block.getInt(base + 4);
+	int values = base + valuesOffset(capacity(block.getInt(base)));
+
+	int best = 0;
+	for (int pos = 1; pos < used; pos++)
+	    if (block.getDouble(values + 8*pos) > block.getDouble(values + 8*best)) best = pos;
+
+	return secondaryEncoding.decode(block.getInt(base + 8 + 4*best));
+    }
+
+    // Direct memory held by this map, including free and unused space
+    public long offHeapBytes() {
+	return (rows.capacity() << 3) + arena.reservedBytes();
+    }
+
+    // Frees all rows and the row table
+    public void close() {
+	rows.close();
+	arena.close();
+    }
+
+    public OffHeapCounterMap(Encoding<E> primaryEncoding, Encoding<F> secondaryEncoding) {
+	this.primaryEncoding = primaryEncoding;
+	this.secondaryEncoding = secondaryEncoding;
+	this.rows = new OffHeapArray(primaryEncoding.size());
+	this.arena = new OffHeapArena();
+    }
+
+    public OffHeapCounterMap() {
+	this(new Encoding<E>(), new Encoding<F>());
+    }
+}
@@ -0,0 +1,294 @@
+package org.mhjones.nlp.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Set;
+
+// Counter for many counters sharing one large encoding, each holding few keys.
+// Counts are kept as encoded ids in sorted order with parallel values, so a
+// counter costs its number of keys rather than the vocabulary size. Once more than
+// DENSE_FILL of the encoding is stored it switches to a dense array like Counter's,
+// and back to sparse if the array would have to grow while under SPARSE_FILL full.
+// nextNonZero() walks only the stored non-zero counts in either layout.
+//
+// The API follows Counter's except that there is no log-counter mode
+// (Counter(int, boolean, ...)): absent keys read as 0 in both layouts, whereas a
+// log counter defaults every key to -infinity, which a sparse counter cannot
+// store without storing every key. getLogProbability gives log probabilities.
+public class SparseCounter<E> implements Serializable {
+    static final double DENSE_FILL = 0.25;
+    static final double SPARSE_FILL = 0.0625;
+
+    public Encoding<E> encoding;
+
+    int[] keys;      // sorted encoded ids while sparse, null while dense
+    double[] values; // parallel to keys while sparse, indexed by id while dense
+    int used;        // stored entries while sparse, non-zero slots while dense
+    double total;    // sum of the counts, kept up to date by incrementCount
+
+    protected int encode(E key) {
+	int eKey = encoding.encode(key);
+
+	if (eKey == Encoding.UNKNOWN)
+	    throw new IllegalArgumentException("Key is not in frozen encoding: " + key);
+
+	return eKey;
+    }
+
+    public boolean isDense() {
+	return keys == null;
+    }
+
+    public Set<E> keySet() {
+	return encoding.keySet();
+    }
+
+    public int size() {
+	return encoding.size();
+    }
+
+    public boolean isEmpty() {
+	return (size() == 0);
+    }
+
+    public double getEncodedCount(int eKey) {
+	if (isDense())
+	    return (eKey >= 0 && eKey < values.length) ? values[eKey] : 0.0;
+
+	int pos = Arrays.binarySearch(keys, 0, used, eKey);
+	return (pos >= 0) ? values[pos] : 0.0;
+    }
+
+    // Reads never add key to the encoding
+    public double getCount(E key) {
+	int eKey = encoding.lookup(key);
+
+	if (eKey == Encoding.UNKNOWN)
+	    return 0.0;
+
+	return getEncodedCount(eKey);
+    }
+
+    public void incrementCount(E key) {
+	incrementCount(key, 1.0);
+    }
+
+    public void incrementCount(E key, double val) {
+	incrementEncodedCount(encode(key), val);
+    }
+
+    public void incrementEncodedCount(int eKey, double val) {
+	if (isDense() && eKey >= values.length) {
+	    int newLength = Math.max(values.length*2, eKey+1);
+
+	    if (used < SPARSE_FILL * newLength) toSparse();
+	    else values = Arrays.copyOf(values, newLength);
+	}
+
+	if (!isDense()) {
+	    int pos = Arrays.binarySearch(keys, 0, used, eKey);
+
+	    if (pos >= 0) {
+		values[pos] += val;
+		total += val;
+		return;
+	    }
+
+	    if (used + 1 > DENSE_FILL * encoding.size()) {
+		toDense(eKey + 1);
+	    } else {
+		insert(-pos - 1, eKey, val);
+		total += val;
+		return;
+	    }
+	}
+
+	double before = values[eKey];
+	values[eKey] += val;
+	if (before == 0.0 && values[eKey] != 0.0) used++;
+	else if (before != 0.0 && values[eKey] == 0.0) used--;
+	total += val;
+    }
+
+    void insert(int pos, int eKey, double val) {
+	if (used == keys.length) {
+	    if (Metrics.ENABLED) Metrics.counterResizes.increment();
+	    int newLength = Math.max(4, keys.length*2);
+	    keys = Arrays.copyOf(keys, newLength);
+	    values = Arrays.copyOf(values, newLength);
+	}
+
+	System.arraycopy(keys, pos, keys, pos+1, used - pos);
+	System.arraycopy(values, pos, values, pos+1, used - pos);
+	keys[pos] = eKey;
+	values[pos] = val;
+	used++;
+    }
+
+    void toDense(int minLength) {
+	int length = Math.max(minLength, encoding.size());
+	if (used > 0) length = Math.max(length, keys[used-1] + 1);
+
+	double[] dense = new double[length];
+	int nonZero = 0;
+	for (int pos = 0; pos < used; pos++) {
+	    dense[keys[pos]] = values[pos];
+	    if (values[pos] != 0.0) nonZero++;
+	}
+
+	keys = null;
+	values = dense;
+	used = nonZero;
+    }
+
+    void toSparse() {
+	int[] sparseKeys = new int[Math.max(4, used)];
+	double[] sparseValues = new double[sparseKeys.length];
+	int pos = 0;
+
+	for (int eKey = 0; eKey < values.length; eKey++) {
+	    if (values[eKey] != 0.0) {
+		sparseKeys[pos] = eKey;
+		sparseValues[pos++] = values[eKey];
+	    }
+	}
+
+	keys = sparseKeys;
+	values = sparseValues;
+	used = pos;
+    }
+
+    // The smallest encoded id at or after eKey with a non-zero count, or
+    // Encoding.UNKNOWN if there is none:
+    //   for (int k = c.nextNonZero(0); k != Encoding.UNKNOWN; k = c.nextNonZero(k+1))
+    public int nextNonZero(int eKey) {
+	if (isDense()) {
+	    for (int k = Math.max(eKey, 0); k < values.length; k++)
+		if (values[k] != 0.0) return k;
+	    return Encoding.UNKNOWN;
+	}
+
+	int pos = Arrays.binarySearch(keys, 0, used, eKey);
+	if (pos < 0) pos = -pos - 1;
+
+	for (; pos < used; pos++)
+	    if (values[pos] != 0.0) return keys[pos];
+	return Encoding.UNKNOWN;
+    }
+
+    // P(key) from the raw counts, without normalizing in place; 0 if there are none
+    public double getProbability(E key) {
+	if (total == 0.0)
+	    return 0.0;
+
+	return getCount(key) / total;
+    }
+
+    public double getLogProbability(E key) {
+	return Math.log(getProbability(key));
+    }
+
+    // Scales the counts to sum to 1; a counter with no mass is left alone rather
+    // than filled with NaN
+    public void normalize() {
+	int stored = isDense() ? values.length : used;
+	double totalCount = totalCount();
+
+	if (totalCount == 0.0)
+	    return;
+
+	for (int pos = 0; pos < stored; pos++) values[pos] /= totalCount;
+	total = totalCount();
+    }
+
+    // Earliest key with the largest non-zero count, or null if there are none
+    public E argMax() {
+	int best = Encoding.UNKNOWN;
+
+	for (int k = nextNonZero(0); k != Encoding.UNKNOWN; k = nextNonZero(k+1))
+	    if (best == Encoding.UNKNOWN || getEncodedCount(k) > getEncodedCount(best)) best = k;
+
+	return (best == Encoding.UNKNOWN) ? null : encoding.decode(best);
+    }
+
+    // Dense copy sharing the encoding, e.g. for CounterMath
+    public Counter<E> toCounter() {
+	Counter<E> counter = new Counter<E>(encoding);
+	if (counter.values.length < encoding.size())
+	    counter.values = new double[encoding.size()];
+
+	for (int k = nextNonZero(0); k != Encoding.UNKNOWN; k = nextNonZero(k+1)) {
+	    if (k >= counter.values.length) counter.values = Arrays.copyOf(counter.values, k+1);
+	    counter.values[k] = getEncodedCount(k);
+	}
+	counter.total = total;
+
+	return counter;
+    }
+
+    // Sums the values, so it also counts values written directly
+    double totalCount() {
+	double sum = 0.0;
+	int stored = isDense() ? values.length : used;
+	for (int pos = 0; pos < stored; pos++) sum += values[pos];
+	return sum;
+    }
+
+    public String toString() {
+	String ret = "[ ";
+
+	for (int k = nextNonZero(0); k != Encoding.UNKNOWN; k = nextNonZero(k+1))
+	    ret += k + " : " + getEncodedCount(k) + ", ";
+
+	ret += "]";
+	return ret;
+    }
+
+    // Copies used (value, encoded id) pairs, e.g. a CounterMap row, in any order.
+    // One sort of the pairs, packed as (id, position) like CounterMap.compact(),
+    // then one pass to fill the layout the final number of keys calls for.
+    public SparseCounter(double[] values, int[] index, int used, Encoding<E> encoding) {
+	this.encoding = encoding;
+
+	long[] order = new long[used];
+	for (int pos = 0; pos < used; pos++) {
+	    if (index[pos] < 0)
+		throw new IllegalArgumentException("Negative encoded id: " + index[pos]);
+	    order[pos] = ((long) index[pos] << 32) | pos;
+	}
+	Arrays.sort(order);
+
+	// merge repeated ids, so the sorted keys are distinct
+	int[] sortedKeys = new int[Math.max(4, used)];
+	double[] sortedValues = new double[Math.max(4, used)];
+	int distinct = 0;
+	for (int i = 0; i < used; i++) {
+	    int eKey = (int) (order[i] >>> 32);
+	    double val = values[(int) order[i]];
+
+	    if (distinct > 0 && sortedKeys[distinct-1] == eKey) {
+		sortedValues[distinct-1] += val;
+	    } else {
+		sortedKeys[distinct] = eKey;
+		sortedValues[distinct++] = val;
+	    }
+	    total += val;
+	}
+
+	this.keys = sortedKeys;
+	this.values = sortedValues;
+	this.used = distinct;
+	if (distinct > DENSE_FILL * encoding.size())
+	    toDense(0);
+    }
+
+    public SparseCounter(Encoding<E> encoding) {
+	this.encoding = encoding;
+	this.keys = new int[4];
+	this.values = new double[4];
+    }
+
+    public SparseCounter() {
+	this(new Encoding<E>());
+    }
+}
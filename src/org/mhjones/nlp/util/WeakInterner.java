@@ -0,0 +1,176 @@
+package org.mhjones.nlp.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Interner that holds its canonical instances weakly, in a concurrent map, so it
+// can be shared by many encodings and threads: an instance stays canonical while
+// some encoding (or anything else) still references it, and its entry is dropped
+// once the collector clears it. Cleared entries are expunged on each call.
+public class WeakInterner<E> extends Interner<E> {
+    // Assumed per-entry cost of the map node, key reference and its bookkeeping
+    static final int ENTRY_BYTES = 80;
+
+    transient ConcurrentHashMap<Object, WeakKey<E>> weakMap;
+    transient ReferenceQueue<E> queue;
+
+    // Map key holding its referent weakly; equal to any key (or probe) whose
+    // referent is equal, and to nothing once cleared except itself
+    static final class WeakKey<E> extends WeakReference<E> {
+	final int hash;
+
+	public int hashCode() {
+	    return hash;
+	}
+
+	public boolean equals(Object o) {
+	    if (o == this)
+		return true;
+
+	    Object referent = get();
+	    if (referent == null)
+		return false;
+
+	    if (o instanceof WeakKey) return referent.equals(((WeakKey) o).get());
+	    if (o instanceof Probe) return referent.equals(((Probe) o).item);
+	    return false;
+	}
+
+	WeakKey(E item, ReferenceQueue<E> queue) {
+	    super(item, queue);
+	    this.hash = item.hashCode();
+	}
+    }
+
+    // Strong key for lookups, one per thread and reused, so a lookup allocates
+    // nothing; it holds its item only for the duration of a lookup
+    static final class Probe {
+	Object item;
+
+	public int hashCode() {
+	    return item.hashCode();
+	}
+
+	public boolean equals(Object o) {
+	    if (o instanceof WeakKey) {
+		Object referent = ((WeakKey) o).get();
+		return referent != null && item.equals(referent);
+	    }
+	    return false;
+	}
+
+    }
+
+    static final ThreadLocal<Probe> probes = new ThreadLocal<Probe>() {
+	protected Probe initialValue() {
+	    return new Probe();
+	}
+    };
+
+    public E intern(E item) {
+	expunge();
+
+	E cItem = canonical(item);
+	if (cItem != null)
+	    return cItem;
+
+	WeakKey<E> key = new WeakKey<E>(item, queue);
+
+	while (true) {
+	    WeakKey<E> existing = weakMap.putIfAbsent(key, key);
+	    if (existing == null)
+		return item;
+
+	    cItem = existing.get();
+	    if (cItem != null)
+		return cItem;
+
+	    // lost to an entry that has just been cleared
+	    weakMap.remove(existing, existing);
+	}
+    }
+
+    public E canonical(E item) {
+	Probe probe = probes.get();
+	probe.item = item;
+	try {
+	    WeakKey<E> key = weakMap.get(probe);
+	    return (key == null) ? null : key.get();
+	} finally {
+	    probe.item = null;
+	}
+    }
+
+    protected void expunge() {
+	Object cleared;
+	while ((cleared = queue.poll()) != null)
+	    weakMap.remove(cleared, cleared);
+    }
+
+    public int size() {
+	expunge();
+	return weakMap.size();
+    }
+
+    // Rough estimate of the bytes the interner keeps alive, not a measurement: it
+    // assumes ENTRY_BYTES per entry and two bytes per String char, whatever layout
+    // the JVM actually uses, and 16 bytes for any other item
+    public long footprint() {
+	expunge();
+
+	long bytes = 0;
+	for (WeakKey<E> key : weakMap.values()) {
+	    E item = key.get();
+	    if (item == null)
+		continue;
+
+	    bytes += ENTRY_BYTES;
+	    if (item instanceof String) bytes += 2L * ((String) item).length();
+	    else bytes += 16;
+	}
+
+	return bytes;
+    }
+
+    // Writes the live canonical instances, so encodings serialized alongside the
+    // interner find the same instances canonical again when read back
+    private void writeObject(ObjectOutputStream out) throws IOException {
+	out.defaultWriteObject();
+
+	List<E> items = new ArrayList<E>();
+	for (WeakKey<E> key : weakMap.values()) {
+	    E item = key.get();
+	    if (item != null) items.add(item);
+	}
+
+	out.writeInt(items.size());
+	for (E item : items) out.writeObject(item);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+	in.defaultReadObject();
+
+	weakMap = new ConcurrentHashMap<Object, WeakKey<E>>();
+	queue = new ReferenceQueue<E>();
+
+	int size = in.readInt();
+	for (int i = 0; i < size; i++) {
+	    E item = (E) in.readObject();
+	    WeakKey<E> key = new WeakKey<E>(item, queue);
+	    weakMap.put(key, key);
+	}
+    }
+
+    public WeakInterner() {
+	super(null);
+	this.weakMap = new ConcurrentHashMap<Object, WeakKey<E>>();
+	this.queue = new ReferenceQueue<E>();
+    }
+}